@@ -0,0 +1,68 @@
+package com.example.benchmark;
+
+import com.example.model.AveragePrice;
+import com.example.service.DatabaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выдача всех средних цен при разных размерах таблицы: материализация списка против потоковой выдачи курсором.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AveragePriceQueryBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	public int tableSize;
+	
+	private BenchmarkDatabase database;
+	private DatabaseService databaseService;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		database = new BenchmarkDatabase();
+		database.execute(
+				"INSERT INTO average_prices (product_id, average_price, offer_count, price_sum) "
+						+ "SELECT id, 100 + id % 1000, 1 + id % 20, (100 + id % 1000) * (1 + id % 20) "
+						+ "FROM generate_series(1, " + tableSize + ") AS id",
+				"ANALYZE average_prices");
+		databaseService = new DatabaseService(database.config());
+	}
+	
+	@Benchmark
+	public List<AveragePrice> getAllAveragePrices() {
+		return databaseService.getAllAveragePrices();
+	}
+	
+	@Benchmark
+	public int streamAveragePrices(Blackhole blackhole) throws Exception {
+		return databaseService.streamAveragePrices(null, null, (productId, averagePrice, offerCount, minPrice, maxPrice,
+																 medianPrice, p90Price) -> {
+			blackhole.consume(productId);
+			blackhole.consume(averagePrice);
+			blackhole.consume(offerCount);
+			blackhole.consume(minPrice);
+			blackhole.consume(maxPrice);
+			blackhole.consume(medianPrice);
+			blackhole.consume(p90Price);
+		});
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		databaseService.close();
+		database.close();
+	}
+}
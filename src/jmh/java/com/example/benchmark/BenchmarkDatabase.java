@@ -0,0 +1,63 @@
+package com.example.benchmark;
+
+import com.example.config.ApplicationConfig;
+import com.example.migrations.DatabaseMigrator;
+import com.zaxxer.hikari.HikariDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Postgres в Testcontainers со схемой из миграций — общий стенд для бенчмарков, которым нужна база.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+	private final PostgreSQLContainer<?> container;
+	
+	BenchmarkDatabase() {
+		container = new PostgreSQLContainer<>("postgres:13");
+		container.start();
+		
+		try(HikariDataSource dataSource = new HikariDataSource()) {
+			dataSource.setJdbcUrl(container.getJdbcUrl());
+			dataSource.setUsername(container.getUsername());
+			dataSource.setPassword(container.getPassword());
+			DatabaseMigrator.runMigrations(dataSource);
+		}
+	}
+	
+	/**
+	 * @param overrides пары ключ/значение поверх настроек подключения
+	 */
+	ApplicationConfig config(String... overrides) {
+		Properties props = new Properties();
+		props.setProperty("db.url", container.getJdbcUrl());
+		props.setProperty("db.username", container.getUsername());
+		props.setProperty("db.password", container.getPassword());
+		props.setProperty("ingest.journal.enabled", "false");
+		for(int i = 0; i + 1 < overrides.length; i += 2) {
+			props.setProperty(overrides[i], overrides[i + 1]);
+		}
+		return new ApplicationConfig(props);
+	}
+	
+	void execute(String... statements) {
+		try(Connection conn = DriverManager.getConnection(
+				container.getJdbcUrl(), container.getUsername(), container.getPassword());
+			Statement stmt = conn.createStatement()) {
+			for(String sql : statements) {
+				stmt.execute(sql);
+			}
+		} catch(SQLException e) {
+			throw new RuntimeException("Failed to prepare benchmark data", e);
+		}
+	}
+	
+	@Override
+	public void close() {
+		container.stop();
+	}
+}
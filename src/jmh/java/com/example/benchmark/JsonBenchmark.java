@@ -0,0 +1,61 @@
+package com.example.benchmark;
+
+import com.example.model.ApiResponse;
+import com.example.model.AveragePrice;
+import com.example.model.PriceUpdate;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор тела {@code POST /api/prices/update} и сериализация ответов со средними ценами.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+	private static final TypeReference<List<PriceUpdate>> PRICE_UPDATES = new TypeReference<>() {
+	};
+	
+	@Param({"100", "10000"})
+	public int size;
+	
+	private ObjectMapper objectMapper;
+	private byte[] priceUpdatesJson;
+	private ApiResponse averagePricesResponse;
+	
+	@Setup
+	public void setUp() throws Exception {
+		objectMapper = new ObjectMapper();
+		
+		List<PriceUpdate> priceUpdates = new ArrayList<>(size);
+		List<AveragePrice> averagePrices = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			priceUpdates.add(new PriceUpdate((long) i / 4, "Производитель " + i % 50, 100.0 + i % 1000));
+			averagePrices.add(new AveragePrice((long) i, 100.0 + i % 1000, 1 + i % 20));
+		}
+		priceUpdatesJson = objectMapper.writeValueAsBytes(priceUpdates);
+		averagePricesResponse = new ApiResponse("success", "Средние цены успешно получены", averagePrices);
+	}
+	
+	@Benchmark
+	public List<PriceUpdate> deserializePriceUpdates() throws Exception {
+		return objectMapper.readValue(priceUpdatesJson, PRICE_UPDATES);
+	}
+	
+	@Benchmark
+	public byte[] serializeAveragePrices() throws Exception {
+		return objectMapper.writeValueAsBytes(averagePricesResponse);
+	}
+}
@@ -0,0 +1,70 @@
+package com.example.benchmark;
+
+import com.example.model.PriceUpdate;
+import com.example.service.DatabaseService;
+import com.example.service.PriceProcessingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сквозной путь записи: {@link PriceProcessingService#processPriceUpdates} до фиксации в Postgres.
+ * {@code hotProducts} задает перекос: все обновления пакета приходятся на столько продуктов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ProcessingBenchmark {
+	@Param({"1000"})
+	public int batchSize;
+	
+	@Param({"10", "100000"})
+	public int hotProducts;
+	
+	private BenchmarkDatabase database;
+	private DatabaseService databaseService;
+	private PriceProcessingService processingService;
+	private List<PriceUpdate> batch;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		database = new BenchmarkDatabase();
+		databaseService = new DatabaseService(database.config());
+		databaseService.startBackgroundTasks();
+		processingService = new PriceProcessingService(databaseService, database.config());
+	}
+	
+	@Setup(Level.Invocation)
+	public void nextBatch() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		batch = new ArrayList<>(batchSize);
+		for(int i = 0; i < batchSize; i++) {
+			batch.add(new PriceUpdate((long) random.nextInt(hotProducts), "Производитель " + random.nextInt(200),
+					10.0 + random.nextInt(100_000) / 100.0));
+		}
+	}
+	
+	@Benchmark
+	public void processPriceUpdates() {
+		processingService.processPriceUpdates(batch).join();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		processingService.shutdown();
+		databaseService.close();
+		database.close();
+	}
+}
@@ -0,0 +1,69 @@
+package com.example.benchmark;
+
+import com.example.config.ApplicationConfig;
+import com.example.model.PriceUpdate;
+import com.example.service.DatabaseService;
+import com.example.service.PriceProcessingService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Платформенные полосы по числу ядер против виртуальных полос, ограниченных семафором по размеру пула:
+ * много одновременных небольших запросов, как от параллельных HTTP-клиентов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class ThreadModeBenchmark {
+	@Param({"false", "true"})
+	public boolean virtualThreads;
+	
+	@Param({"20"})
+	public int requestSize;
+	
+	private BenchmarkDatabase database;
+	private DatabaseService databaseService;
+	private PriceProcessingService processingService;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		database = new BenchmarkDatabase();
+		ApplicationConfig config = database.config("threads.virtual", Boolean.toString(virtualThreads));
+		databaseService = new DatabaseService(config);
+		databaseService.startBackgroundTasks();
+		processingService = new PriceProcessingService(databaseService, config);
+	}
+	
+	@Benchmark
+	public void processConcurrentRequests() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		List<PriceUpdate> request = new ArrayList<>(requestSize);
+		for(int i = 0; i < requestSize; i++) {
+			request.add(new PriceUpdate((long) random.nextInt(100_000), "Производитель " + random.nextInt(200),
+					10.0 + random.nextInt(100_000) / 100.0));
+		}
+		processingService.processPriceUpdates(request).join();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		processingService.shutdown();
+		databaseService.close();
+		database.close();
+	}
+}
@@ -0,0 +1,83 @@
+package com.example.benchmark;
+
+import com.example.model.PriceUpdate;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Стоимость разбора и кодирования тела {@code POST /api/prices/update} из 10k обновлений в каждом поддерживаемом формате.
+ * {@code JSON_GZIP} — JSON с {@code Content-Encoding: gzip}: время включает распаковку или сжатие.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireFormatBenchmark {
+	private static final TypeReference<List<PriceUpdate>> PRICE_UPDATES = new TypeReference<>() {
+	};
+	private static final int SIZE = 10_000;
+	
+	@Param({"JSON", "JSON_GZIP", "SMILE", "CBOR"})
+	public String format;
+	
+	private ObjectMapper mapper;
+	private boolean gzip;
+	private List<PriceUpdate> priceUpdates;
+	private byte[] body;
+	
+	@Setup
+	public void setUp() throws Exception {
+		gzip = format.equals("JSON_GZIP");
+		mapper = switch(format) {
+			case "SMILE" -> new SmileMapper();
+			case "CBOR" -> new CBORMapper();
+			default -> new ObjectMapper();
+		};
+		
+		priceUpdates = new ArrayList<>(SIZE);
+		for(int i = 0; i < SIZE; i++) {
+			priceUpdates.add(new PriceUpdate((long) i / 4, "Производитель " + i % 50, 100.0 + i % 1000));
+		}
+		body = encodePriceUpdates();
+	}
+	
+	@Benchmark
+	public List<PriceUpdate> decodePriceUpdates() throws IOException {
+		if(gzip) {
+			try(GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+				return mapper.readValue(in, PRICE_UPDATES);
+			}
+		}
+		return mapper.readValue(body, PRICE_UPDATES);
+	}
+	
+	@Benchmark
+	public byte[] encodePriceUpdates() throws IOException {
+		if(gzip) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try(GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+				mapper.writeValue(gzipOut, priceUpdates);
+			}
+			return out.toByteArray();
+		}
+		return mapper.writeValueAsBytes(priceUpdates);
+	}
+}
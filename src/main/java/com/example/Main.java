@@ -1,46 +1,151 @@
 package com.example;
 
+import com.example.config.ApplicationConfig;
+import com.example.service.BulkLoadService;
 import com.example.service.DatabaseService;
 import com.example.service.PriceProcessingService;
+import com.example.service.Readiness;
 import com.example.servlet.AveragePriceServlet;
+import com.example.servlet.BulkLoadServlet;
+import com.example.servlet.HealthServlet;
+import com.example.servlet.MetricsServlet;
+import com.example.servlet.PriceHistoryServlet;
 import com.example.servlet.PriceUpdateServlet;
+import com.example.servlet.RequestMetricsFilter;
+import com.example.servlet.StatsServlet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.websocket.server.ServerEndpointConfig;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.gzip.GzipHandler;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.websocket.jakarta.server.config.JakartaWebSocketServletContainerInitializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
 	private static final Logger logger = LoggerFactory.getLogger(Main.class);
 	private static final int PORT = 8080;
 	
+	@FunctionalInterface
+	private interface StartupStep {
+		void run() throws Exception;
+	}
+	
+	/**
+	 * Повтор шагов старта: база может подняться позже сервиса. Пауза между попытками удваивается до
+	 * {@code maxBackoffMillis}; шаг, не прошедший за {@code deadlineMillis} от своего начала, считается упавшим.
+	 */
+	private record StartupRetry(long deadlineMillis, long initialBackoffMillis, long maxBackoffMillis) {
+	}
+	
 	public static void main(String[] args) {
 		try {
 			logger.info("Starting Price Service application...");
 			
-			DatabaseService databaseService = new DatabaseService();
-			PriceProcessingService processingService = new PriceProcessingService(databaseService);
+			ApplicationConfig config = ApplicationConfig.load();
+			Readiness readiness = new Readiness(ManagementFactory.getRuntimeMXBean().getStartTime());
+			boolean cdsTraining = config.getBoolean("startup.cds-training", false);
+			
+			PrometheusMeterRegistry meterRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+			new JvmMemoryMetrics().bindTo(meterRegistry);
+			new JvmGcMetrics().bindTo(meterRegistry);
+			new JvmThreadMetrics().bindTo(meterRegistry);
+			new ProcessorMetrics().bindTo(meterRegistry);
+			Metrics.addRegistry(meterRegistry);
+			TimeGauge.builder("application.ready.time", readiness, TimeUnit.MILLISECONDS,
+							r -> r.isReady() ? r.getStartupMillis() : Double.NaN)
+					.description("Time from JVM start until migrations, pools, journal replay and caches were ready")
+					.register(meterRegistry);
+			
+			DatabaseService databaseService = new DatabaseService(config);
+			PriceProcessingService processingService = new PriceProcessingService(databaseService, config);
+			BulkLoadService bulkLoadService = new BulkLoadService(databaseService);
+			ObjectMapper webSocketMapper = new ObjectMapper();
+			PriceSubscriptionHub subscriptionHub = new PriceSubscriptionHub(webSocketMapper);
+			databaseService.addAveragePriceListener(subscriptionHub);
 			
-			PriceUpdateServlet priceUpdateServlet = new PriceUpdateServlet(processingService);
-			AveragePriceServlet averagePriceServlet = new AveragePriceServlet(databaseService);
+			PriceUpdateServlet priceUpdateServlet = new PriceUpdateServlet(processingService, config);
+			AveragePriceServlet averagePriceServlet = new AveragePriceServlet(databaseService, createReadExecutor(config), config);
+			PriceHistoryServlet priceHistoryServlet = new PriceHistoryServlet(databaseService, config);
+			BulkLoadServlet bulkLoadServlet = new BulkLoadServlet(bulkLoadService);
+			StatsServlet statsServlet = new StatsServlet(databaseService, processingService);
+			MetricsServlet metricsServlet = new MetricsServlet(meterRegistry);
+			HealthServlet healthServlet = new HealthServlet(readiness);
 			
-			Server server = new Server(PORT);
+			Server server = createServer(config);
 			
 			ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
 			context.setContextPath("/");
-			server.setHandler(context);
+			server.setHandler(config.getBoolean("server.gzip.enabled", true) ? createGzipHandler(config, context) : context);
 			
 			context.addServlet(new ServletHolder(priceUpdateServlet), "/api/prices/update");
 			context.addServlet(new ServletHolder(averagePriceServlet), "/api/prices/average/*");
+			context.addServlet(new ServletHolder(priceHistoryServlet), "/api/prices/history/*");
+			context.addServlet(new ServletHolder(bulkLoadServlet), "/api/prices/bulk");
+			context.addServlet(new ServletHolder(statsServlet), "/api/stats");
+			context.addServlet(new ServletHolder(metricsServlet), "/metrics");
+			context.addServlet(new ServletHolder(healthServlet), "/health/*");
+			context.addFilter(new FilterHolder(new RequestMetricsFilter(meterRegistry)), "/*",
+					EnumSet.of(DispatcherType.REQUEST));
+			
+			JakartaWebSocketServletContainerInitializer.configure(context, (servletContext, container) ->
+					container.addEndpoint(ServerEndpointConfig.Builder.create(PriceWebSocket.class, "/ws/price")
+							.configurator(new ServerEndpointConfig.Configurator() {
+								@Override
+								public <T> T getEndpointInstance(Class<T> endpointClass) {
+									return endpointClass.cast(new PriceWebSocket(webSocketMapper, databaseService,
+											processingService, subscriptionHub));
+								}
+							})
+							.build()));
 			
 			server.setStopAtShutdown(true);
 			
 			server.start();
-			logger.info("Price Service started on port {}", PORT);
+			logger.info("Price Service started on port {} in {} ms after JVM start", PORT,
+					System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+			
+			if(cdsTraining) {
+				// тренировочный запуск для архива CDS: классы сервера и сервлетов загружены, база не нужна
+				server.stop();
+				logger.info("CDS training run finished");
+				System.exit(0);
+			}
+			startInBackground(config, readiness, databaseService, processingService);
+			
 			logger.info("API endpoints:");
-			logger.info("  POST /api/prices/update - Update product prices");
+			logger.info("  POST /api/prices/update - Update product prices (?mode=stream for large feeds)");
+			logger.info("  POST /api/prices/bulk - Load a full price snapshot (text/csv or application/json)");
 			logger.info("  GET  /api/prices/average - Get all average prices");
 			logger.info("  GET  /api/prices/average/{productId} - Get average price for specific product");
+			logger.info("  GET  /api/prices/average?ids=1,2,3 (or POST [ids]) - Get average prices for several products");
+			logger.info("  GET  /api/prices/history/{productId}?days=7 - Price statistics over a time window");
+			logger.info("  GET  /api/stats - Service statistics");
+			logger.info("  GET  /metrics - Prometheus metrics");
+			logger.info("  GET  /health/live, /health/ready - Liveness and readiness probes");
+			logger.info("  WS   /ws/price - Price actions and average price subscriptions");
 			
 			server.join();
 			
@@ -49,4 +154,126 @@ public class Main {
 			System.exit(1);
 		}
 	}
+	
+	/**
+	 * Шаги старта, которым нужна база, идут после запуска Jetty: миграции и прогрев пулов параллельно,
+	 * фоновые задачи базы — после миграций, проигрывание журнала и заполнение индекса цен — после миграций
+	 * и прогрева, тоже параллельно. Журнал не начинает
+	 * проигрываться, пока база недоступна: иначе все его записи ушли бы в карантин. Готовность
+	 * ({@code /health/ready}) наступает, когда завершены все шаги.
+	 */
+	private static void startInBackground(ApplicationConfig config, Readiness readiness,
+										  DatabaseService databaseService, PriceProcessingService processingService) {
+		boolean migrate = config.getBoolean("db.migrate-on-start", true);
+		boolean warmIndex = databaseService.getPriceIndex() != null;
+		// все шаги регистрируются до запуска первого, иначе быстрый шаг объявил бы готовность раньше времени
+		if(migrate) {
+			readiness.register("migrations");
+		}
+		readiness.register("connection-pools");
+		readiness.register("background-tasks");
+		readiness.register("journal-replay");
+		if(warmIndex) {
+			readiness.register("price-index");
+		}
+		
+		StartupRetry retry = new StartupRetry(
+				config.getLong("startup.retry.deadline-ms", 300_000),
+				config.getLong("startup.retry.initial-backoff-ms", 500),
+				config.getLong("startup.retry.max-backoff-ms", 10_000));
+		
+		Executor executor = Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("startup-", 0).daemon(true).factory());
+		CompletableFuture<Void> started = CompletableFuture.completedFuture(null);
+		CompletableFuture<Void> migrations = migrate
+				? runStep(readiness, "migrations", started, databaseService :: runMigrations, retry, executor)
+				: started;
+		CompletableFuture<Void> pools = runStep(readiness, "connection-pools", started, databaseService :: warmUpPools,
+				retry, executor);
+		// замер реплики и пересчет агрегатов обращаются к схеме, поэтому стартуют только после миграций
+		runStep(readiness, "background-tasks", migrations, databaseService :: startBackgroundTasks, retry, executor);
+		CompletableFuture<Void> database = CompletableFuture.allOf(migrations, pools);
+		runStep(readiness, "journal-replay", database, processingService :: recoverJournal, retry, executor);
+		if(warmIndex) {
+			// до окончания заполнения чтения идут в базу
+			runStep(readiness, "price-index", database, databaseService :: warmPriceIndex, retry, executor);
+		}
+	}
+	
+	/**
+	 * Выполняет шаг после {@code after}, повторяя его по {@code retry}. Упавший шаг отмечается в {@link Readiness}
+	 * только после исчерпания срока; зависящие от него шаги тогда не запускаются.
+	 */
+	private static CompletableFuture<Void> runStep(Readiness readiness, String name, CompletableFuture<Void> after,
+												   StartupStep step, StartupRetry retry, Executor executor) {
+		return after.thenRunAsync(() -> {
+			long started = System.nanoTime();
+			long deadline = started + TimeUnit.MILLISECONDS.toNanos(retry.deadlineMillis());
+			long backoffMillis = retry.initialBackoffMillis();
+			for(int attempt = 1; ; attempt++) {
+				try {
+					step.run();
+					break;
+				} catch(Exception e) {
+					long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if(remainingMillis <= 0) {
+						readiness.fail(name, e);
+						throw new IllegalStateException("Startup step " + name + " failed after " + attempt + " attempts", e);
+					}
+					logger.warn("Startup step {} failed (attempt {}), retrying in {} ms", name, attempt, backoffMillis, e);
+					try {
+						Thread.sleep(Math.min(backoffMillis, remainingMillis));
+					} catch(InterruptedException interrupted) {
+						Thread.currentThread().interrupt();
+						readiness.fail(name, e);
+						throw new IllegalStateException("Startup step " + name + " interrupted", e);
+					}
+					backoffMillis = Math.min(backoffMillis * 2, retry.maxBackoffMillis());
+				}
+			}
+			logger.info("Startup step {} finished in {} ms", name, (System.nanoTime() - started) / 1_000_000);
+			readiness.complete(name);
+		}, executor);
+	}
+	
+	/**
+	 * Исполнитель чтений средних цен: потоки Jetty передают ему обращения к базе и освобождаются.
+	 * Платформенных потоков столько же, сколько соединений в пуле чтения, — больше одновременных запросов база не примет.
+	 */
+	private static ExecutorService createReadExecutor(ApplicationConfig config) {
+		if(config.getBoolean("threads.virtual", false)) {
+			return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("price-read-", 0).factory());
+		}
+		return Executors.newFixedThreadPool(config.getInt("db.read.pool.max-size", config.getInt("db.pool.max-size", 20)),
+				Thread.ofPlatform().name("price-read-", 0).daemon(true).factory());
+	}
+	
+	/**
+	 * Сжатие ответов и распаковка тел с {@code Content-Encoding: gzip} для JSON-клиентов. Двоичные форматы
+	 * (Smile, CBOR) не сжимаются повторно: выигрыш мал, а процессор тратится на обеих сторонах.
+	 */
+	private static GzipHandler createGzipHandler(ApplicationConfig config, Handler handler) {
+		GzipHandler gzipHandler = new GzipHandler();
+		gzipHandler.setIncludedMimeTypes("application/json");
+		gzipHandler.setIncludedMethods("GET", "POST");
+		gzipHandler.setMinGzipSize(config.getInt("server.gzip.min-size", 1024));
+		gzipHandler.setInflateBufferSize(config.getInt("server.gzip.inflate-buffer-size", 16 * 1024));
+		gzipHandler.setHandler(handler);
+		return gzipHandler;
+	}
+	
+	private static Server createServer(ApplicationConfig config) {
+		QueuedThreadPool threadPool = new QueuedThreadPool(config.getInt("server.threads.max", 200));
+		threadPool.setName("jetty");
+		if(config.getBoolean("threads.virtual", false)) {
+			// акцепторы и селекторы остаются на платформенных потоках, обработка запросов — на виртуальных
+			threadPool.setUseVirtualThreads(true);
+			logger.info("Virtual threads enabled for request handling and price processing");
+		}
+		
+		Server server = new Server(threadPool);
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(PORT);
+		server.addConnector(connector);
+		return server;
+	}
 }
\ No newline at end of file
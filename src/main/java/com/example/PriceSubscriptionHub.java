@@ -0,0 +1,182 @@
+package com.example;
+
+import com.example.model.AveragePrice;
+import com.example.service.AveragePriceListener;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Подписки WebSocket-сессий на средние цены продуктов. Изменения копятся per-сессия с заменой по продукту
+ * (conflation): пока предыдущее сообщение не отправлено, новое значение продукта вытесняет старое, так что
+ * медленный клиент получает только последние цены. Отправка асинхронная и строго последовательная в рамках сессии,
+ * поэтому поток записи в базу никогда не ждет сокет.
+ */
+public class PriceSubscriptionHub implements AveragePriceListener {
+    private static final Logger logger = LoggerFactory.getLogger(PriceSubscriptionHub.class);
+
+    private final ObjectMapper objectMapper;
+    private final Map<Session, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Subscriber>> subscribersByProduct = new ConcurrentHashMap<>();
+
+    public PriceSubscriptionHub(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public void register(Session session) {
+        subscribers.put(session, new Subscriber(session));
+    }
+
+    public void unregister(Session session) {
+        Subscriber subscriber = subscribers.remove(session);
+        if (subscriber != null) {
+            unsubscribe(subscriber, subscriber.productIds);
+        }
+    }
+
+    public void subscribe(Session session, Collection<Long> productIds) {
+        Subscriber subscriber = subscribers.get(session);
+        if (subscriber == null) {
+            return;
+        }
+        for (Long productId : productIds) {
+            subscriber.productIds.add(productId);
+            subscribersByProduct.computeIfAbsent(productId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        }
+    }
+
+    public void unsubscribe(Session session, Collection<Long> productIds) {
+        Subscriber subscriber = subscribers.get(session);
+        if (subscriber != null) {
+            unsubscribe(subscriber, new ArrayList<>(productIds));
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber, Collection<Long> productIds) {
+        for (Long productId : productIds) {
+            subscriber.productIds.remove(productId);
+            subscriber.pendingPrices.remove(productId);
+            subscribersByProduct.computeIfPresent(productId, (id, set) -> {
+                set.remove(subscriber);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    /**
+     * Отправляет ответ на запрос клиента через ту же очередь сессии, что и push-обновления.
+     */
+    public void send(Session session, String message) {
+        Subscriber subscriber = subscribers.get(session);
+        if (subscriber != null) {
+            subscriber.replies.add(message);
+            subscriber.flush();
+        }
+    }
+
+    @Override
+    public void onAveragePricesChanged(List<AveragePrice> averagePrices) {
+        for (AveragePrice averagePrice : averagePrices) {
+            Set<Subscriber> interested = subscribersByProduct.get(averagePrice.getProductId());
+            if (interested == null) {
+                continue;
+            }
+            for (Subscriber subscriber : interested) {
+                subscriber.pendingPrices.put(averagePrice.getProductId(), averagePrice);
+            }
+        }
+        for (AveragePrice averagePrice : averagePrices) {
+            Set<Subscriber> interested = subscribersByProduct.get(averagePrice.getProductId());
+            if (interested != null) {
+                interested.forEach(Subscriber::flush);
+            }
+        }
+    }
+
+    private final class Subscriber {
+        private final Session session;
+        private final Set<Long> productIds = ConcurrentHashMap.newKeySet();
+        private final Map<Long, AveragePrice> pendingPrices = new ConcurrentHashMap<>();
+        private final Queue<String> replies = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        Subscriber(Session session) {
+            this.session = session;
+        }
+
+        void flush() {
+            if (!sending.compareAndSet(false, true)) {
+                return;
+            }
+            String message = nextMessage();
+            if (message == null) {
+                sending.set(false);
+                // значение могло появиться между проверкой и сбросом флага
+                if (!replies.isEmpty() || !pendingPrices.isEmpty()) {
+                    flush();
+                }
+                return;
+            }
+            if (!session.isOpen()) {
+                unregister(session);
+                return;
+            }
+            session.getAsyncRemote().sendText(message, this::onSent);
+        }
+
+        private void onSent(SendResult result) {
+            sending.set(false);
+            if (!result.isOK()) {
+                logger.warn("Failed to push prices to WebSocket session {}", session.getId(), result.getException());
+                unregister(session);
+                return;
+            }
+            flush();
+        }
+
+        private String nextMessage() {
+            String reply = replies.poll();
+            if (reply != null) {
+                return reply;
+            }
+            if (pendingPrices.isEmpty()) {
+                return null;
+            }
+
+            List<AveragePrice> batch = new ArrayList<>(pendingPrices.size());
+            for (Long productId : new ArrayList<>(pendingPrices.keySet())) {
+                AveragePrice latest = pendingPrices.remove(productId);
+                if (latest != null) {
+                    batch.add(latest);
+                }
+            }
+            if (batch.isEmpty()) {
+                return null;
+            }
+            try {
+                ObjectNode message = objectMapper.createObjectNode()
+                        .put("action", "averagePrices")
+                        .put("status", "success");
+                message.set("data", objectMapper.valueToTree(batch));
+                return objectMapper.writeValueAsString(message);
+            } catch (JsonProcessingException e) {
+                logger.error("Failed to serialize pushed average prices", e);
+                return null;
+            }
+        }
+    }
+}
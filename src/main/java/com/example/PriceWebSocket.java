@@ -3,47 +3,70 @@ package com.example;
 import com.example.model.PriceUpdate;
 import com.example.model.AveragePrice;
 import com.example.service.DatabaseService;
+import com.example.service.IngestionRejectedException;
+import com.example.service.PriceProcessingService;
+import com.example.servlet.PriceUpdateServlet;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.*;
+import jakarta.websocket.server.ServerEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.websocket.*;
-import javax.websocket.server.ServerEndpoint;
-import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
 @ServerEndpoint("/ws/price")
 public class PriceWebSocket {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final DatabaseService dbService = new DatabaseService();
-    private static final Map<Session, Void> sessions = new ConcurrentHashMap<>();
+    private static final Logger logger = LoggerFactory.getLogger(PriceWebSocket.class);
+
+    private final ObjectMapper objectMapper;
+    private final DatabaseService dbService;
+    private final PriceProcessingService processingService;
+    private final PriceSubscriptionHub hub;
+
+    public PriceWebSocket(ObjectMapper objectMapper, DatabaseService dbService, PriceProcessingService processingService,
+                          PriceSubscriptionHub hub) {
+        this.objectMapper = objectMapper;
+        this.dbService = dbService;
+        this.processingService = processingService;
+        this.hub = hub;
+    }
 
     @OnOpen
     public void onOpen(Session session) {
-        sessions.put(session, null);
+        hub.register(session);
     }
 
     @OnClose
     public void onClose(Session session) {
-        sessions.remove(session);
+        hub.unregister(session);
     }
 
     @OnMessage
-    public void onMessage(String message, Session session) throws IOException {
+    public void onMessage(String message, Session session) {
         try {
             JsonNode root = objectMapper.readTree(message);
             String action = root.path("action").asText();
             switch (action) {
                 case "updatePrice":
-                    PriceUpdate priceUpdate = objectMapper.treeToValue(root.path("data"), PriceUpdate.class);
-                    dbService.updatePrice(priceUpdate);
-                    sendResponse(session, "updatePrice", "success", null);
+                    updatePrice(session, objectMapper.treeToValue(root.path("data"), PriceUpdate.class));
                     break;
                 case "getAveragePrice":
                     Long productId = root.path("data").path("productId").asLong();
                     AveragePrice avg = dbService.getAveragePrice(productId);
                     sendResponse(session, "getAveragePrice", "success", avg);
                     break;
+                case "subscribe":
+                    List<Long> subscribed = productIds(root);
+                    hub.subscribe(session, subscribed);
+                    sendResponse(session, "subscribe", "success", subscribed);
+                    break;
+                case "unsubscribe":
+                    List<Long> unsubscribed = productIds(root);
+                    hub.unsubscribe(session, unsubscribed);
+                    sendResponse(session, "unsubscribe", "success", unsubscribed);
+                    break;
                 default:
                     sendResponse(session, action, "error", "Unknown action");
             }
@@ -52,17 +75,58 @@ public class PriceWebSocket {
         }
     }
 
-    private void sendResponse(Session session, String action, String status, Object data) throws IOException {
+    /**
+     * Тот же путь, что у POST /api/prices/update: проверка, журнал, полосы и ограниченная очередь.
+     * Ответ отправляется после записи в журнал, поток сокета базу не ждет.
+     */
+    private void updatePrice(Session session, PriceUpdate priceUpdate) {
+        try {
+            if (priceUpdate == null) {
+                throw new IllegalArgumentException("Price update is required");
+            }
+            PriceUpdateServlet.validatePriceUpdate(priceUpdate);
+        } catch (IllegalArgumentException e) {
+            sendResponse(session, "updatePrice", "error", e.getMessage());
+            return;
+        }
+
+        PriceProcessingService.Submission submission;
+        try {
+            submission = processingService.submit(List.of(priceUpdate), false);
+        } catch (IngestionRejectedException e) {
+            sendResponse(session, "updatePrice", "error",
+                    "Service is overloaded, retry in " + e.getRetryAfterSeconds() + " s");
+            return;
+        }
+        submission.accepted().whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                logger.error("Failed to journal a WebSocket price update", throwable);
+                sendResponse(session, "updatePrice", "error", "Failed to accept the price update");
+            } else {
+                sendResponse(session, "updatePrice", "success", null);
+            }
+        });
+    }
+
+    private List<Long> productIds(JsonNode root) {
+        List<Long> productIds = new ArrayList<>();
+        for (JsonNode id : root.path("data").path("productIds")) {
+            productIds.add(id.asLong());
+        }
+        return productIds;
+    }
+
+    private void sendResponse(Session session, String action, String status, Object data) {
         String resp = objectMapper.createObjectNode()
                 .put("action", action)
                 .put("status", status)
                 .set("data", objectMapper.valueToTree(data))
                 .toString();
-        session.getBasicRemote().sendText(resp);
+        hub.send(session, resp);
     }
 
     @OnError
     public void onError(Session session, Throwable throwable) {
-        // Можно добавить логирование
+        logger.warn("WebSocket session {} failed", session.getId(), throwable);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,63 @@
+package com.example.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+public class ApplicationConfig {
+	private final Properties props;
+	
+	public ApplicationConfig(Properties props) {
+		this.props = props;
+	}
+	
+	public static ApplicationConfig load() {
+		Properties props = new Properties();
+		
+		try(InputStream is = ApplicationConfig.class.getClassLoader()
+									 .getResourceAsStream("application.properties")) {
+			if(is != null) {
+				props.load(is);
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("Failed to load application.properties", e);
+		}
+		
+		overrideWithEnvVars(props);
+		
+		return new ApplicationConfig(props);
+	}
+	
+	private static void overrideWithEnvVars(Properties props) {
+		props.replaceAll((key, value) -> System.getenv().getOrDefault(toEnvKey(key.toString()), value.toString()));
+	}
+	
+	private static String toEnvKey(String key) {
+		return key.replace('.', '_').replace('-', '_').toUpperCase();
+	}
+	
+	public String getString(String key) {
+		String value = props.getProperty(key);
+		return value != null ? value : System.getenv(toEnvKey(key));
+	}
+	
+	public String getString(String key, String defaultValue) {
+		String value = getString(key);
+		return value == null || value.isBlank() ? defaultValue : value;
+	}
+	
+	public int getInt(String key, int defaultValue) {
+		String value = getString(key);
+		return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+	}
+	
+	public long getLong(String key, long defaultValue) {
+		String value = getString(key);
+		return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+	}
+	
+	public boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key);
+		return value == null || value.isBlank() ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+}
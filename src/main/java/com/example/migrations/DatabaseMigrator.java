@@ -12,7 +12,7 @@ public class DatabaseMigrator {
 	public static void runMigrations(DataSource dataSource) {
 		try(Connection conn = dataSource.getConnection()) {
 			Liquibase liquibase = new Liquibase(
-					"db/changelog/db.changelog-master.yaml",
+					"db/changelog-master.yaml",
 					new ClassLoaderResourceAccessor(),
 					DatabaseFactory.getInstance()
 							.findCorrectDatabaseImplementation(new JdbcConnection(conn))
@@ -1,11 +1,22 @@
 package com.example.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 public class AveragePrice {
 	private Long productId;
 	private Double averagePrice;
 	private Integer offerCount;
 	
+	// статистика по производителям пересчитывается асинхронно после записи; до первого пересчета отсутствует
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Double minPrice;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Double maxPrice;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Double medianPrice;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Double p90Price;
+	
 	public AveragePrice() {
 	}
 	
@@ -39,12 +50,48 @@ public class AveragePrice {
 		this.offerCount = offerCount;
 	}
 	
+	public Double getMinPrice() {
+		return minPrice;
+	}
+	
+	public void setMinPrice(Double minPrice) {
+		this.minPrice = minPrice;
+	}
+	
+	public Double getMaxPrice() {
+		return maxPrice;
+	}
+	
+	public void setMaxPrice(Double maxPrice) {
+		this.maxPrice = maxPrice;
+	}
+	
+	public Double getMedianPrice() {
+		return medianPrice;
+	}
+	
+	public void setMedianPrice(Double medianPrice) {
+		this.medianPrice = medianPrice;
+	}
+	
+	public Double getP90Price() {
+		return p90Price;
+	}
+	
+	public void setP90Price(Double p90Price) {
+		this.p90Price = p90Price;
+	}
+	
 	@Override
 	public String toString() {
 		return "AveragePrice{" +
 					   "productId=" + productId +
 					   ", averagePrice=" + averagePrice +
 					   ", offerCount=" + offerCount +
+					   ", minPrice=" + minPrice +
+					   ", maxPrice=" + maxPrice +
+					   ", medianPrice=" + medianPrice +
+					   ", p90Price=" + p90Price +
 					   '}';
 	}
 } 
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.example.model;
+
+public class BulkLoadResult {
+	private final long rowsLoaded;
+	private final long offersMerged;
+	private final long productsRebuilt;
+	private final long elapsedMillis;
+	
+	public BulkLoadResult(long rowsLoaded, long offersMerged, long productsRebuilt, long elapsedMillis) {
+		this.rowsLoaded = rowsLoaded;
+		this.offersMerged = offersMerged;
+		this.productsRebuilt = productsRebuilt;
+		this.elapsedMillis = elapsedMillis;
+	}
+	
+	public long getRowsLoaded() {
+		return rowsLoaded;
+	}
+	
+	public long getOffersMerged() {
+		return offersMerged;
+	}
+	
+	public long getProductsRebuilt() {
+		return productsRebuilt;
+	}
+	
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+	
+	public double getRowsPerSecond() {
+		return elapsedMillis == 0 ? rowsLoaded * 1000.0 : rowsLoaded * 1000.0 / elapsedMillis;
+	}
+	
+	@Override
+	public String toString() {
+		return "BulkLoadResult{" +
+					   "rowsLoaded=" + rowsLoaded +
+					   ", offersMerged=" + offersMerged +
+					   ", productsRebuilt=" + productsRebuilt +
+					   ", elapsedMillis=" + elapsedMillis +
+					   '}';
+	}
+}
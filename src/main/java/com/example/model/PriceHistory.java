@@ -0,0 +1,98 @@
+package com.example.model;
+
+import java.util.List;
+
+/**
+ * Статистика цен продукта за окно [from, to): итог по всем наблюдениям и разбивка по дням (UTC).
+ * Наблюдение — одно зафиксированное обновление цены производителя; при отсутствии наблюдений цены равны null.
+ */
+public class PriceHistory {
+	private final long productId;
+	private final String from;
+	private final String to;
+	private final Double averagePrice;
+	private final Double minPrice;
+	private final Double maxPrice;
+	private final long samples;
+	private final List<Point> points;
+	
+	public PriceHistory(long productId, String from, String to, Double averagePrice, Double minPrice,
+						Double maxPrice, long samples, List<Point> points) {
+		this.productId = productId;
+		this.from = from;
+		this.to = to;
+		this.averagePrice = averagePrice;
+		this.minPrice = minPrice;
+		this.maxPrice = maxPrice;
+		this.samples = samples;
+		this.points = points;
+	}
+	
+	public long getProductId() {
+		return productId;
+	}
+	
+	public String getFrom() {
+		return from;
+	}
+	
+	public String getTo() {
+		return to;
+	}
+	
+	public Double getAveragePrice() {
+		return averagePrice;
+	}
+	
+	public Double getMinPrice() {
+		return minPrice;
+	}
+	
+	public Double getMaxPrice() {
+		return maxPrice;
+	}
+	
+	public long getSamples() {
+		return samples;
+	}
+	
+	public List<Point> getPoints() {
+		return points;
+	}
+	
+	public static class Point {
+		private final String day;
+		private final double averagePrice;
+		private final double minPrice;
+		private final double maxPrice;
+		private final long samples;
+		
+		public Point(String day, double averagePrice, double minPrice, double maxPrice, long samples) {
+			this.day = day;
+			this.averagePrice = averagePrice;
+			this.minPrice = minPrice;
+			this.maxPrice = maxPrice;
+			this.samples = samples;
+		}
+		
+		public String getDay() {
+			return day;
+		}
+		
+		public double getAveragePrice() {
+			return averagePrice;
+		}
+		
+		public double getMinPrice() {
+			return minPrice;
+		}
+		
+		public double getMaxPrice() {
+			return maxPrice;
+		}
+		
+		public long getSamples() {
+			return samples;
+		}
+	}
+}
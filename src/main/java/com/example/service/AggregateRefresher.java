@@ -0,0 +1,278 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронный пересчет агрегатов average_prices. Записи помечают продукты грязными после commit;
+ * раз в {@code intervalMillis} множество разбирается пачками до {@code batchSize} продуктов, каждая пачка —
+ * один set-based запрос с GROUP BY по product_prices. Серия записей одного продукта между проходами дает
+ * один пересчет.
+ * <p>
+ * В режиме {@code averages = false} пересчитывается только статистика (min, max, медиана, p90), средние
+ * ведет сама запись. В режиме {@code averages = true} запись меняет только product_prices, а средняя, сумма
+ * и количество пересчитываются здесь вместе со статистикой.
+ * <p>
+ * В режиме {@code averages = true} пометки дублируются в average_prices_dirty транзакцией записи: первый
+ * проход загружает оттуда продукты, не пересчитанные до падения предыдущего процесса, а пересчет пачки
+ * удаляет ее пометки в своей транзакции. Пометки статистики живут только в памяти: после падения
+ * min/max/медиана/p90 догоняют при следующей записи продукта.
+ */
+class AggregateRefresher implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(AggregateRefresher.class);
+	
+	// строки блокируются в порядке product_id, как и в upsert'е записи, чтобы не было взаимных блокировок
+	private static final String LOCK_AVERAGES_SQL = """
+			    SELECT product_id
+			    FROM average_prices
+			    WHERE product_id = ANY(?)
+			    ORDER BY product_id
+			    FOR UPDATE
+			""";
+	
+	private static final String REFRESH_STATISTICS_SQL = """
+			    UPDATE average_prices a
+			    SET min_price = s.min_price,
+			        max_price = s.max_price,
+			        median_price = s.median_price,
+			        p90_price = s.p90_price
+			    FROM (
+			        SELECT product_id,
+			               MIN(price) AS min_price,
+			               MAX(price) AS max_price,
+			               percentile_cont(0.5) WITHIN GROUP (ORDER BY price) AS median_price,
+			               percentile_cont(0.9) WITHIN GROUP (ORDER BY price) AS p90_price
+			        FROM product_prices
+			        WHERE product_id = ANY(?)
+			        GROUP BY product_id
+			    ) s
+			    WHERE a.product_id = s.product_id
+			    RETURNING a.product_id, a.average_price, a.offer_count,
+			              a.min_price, a.max_price, a.median_price, a.p90_price
+			""";
+	
+	private static final String REFRESH_AGGREGATES_SQL = """
+			    INSERT INTO average_prices (product_id, average_price, offer_count, price_sum,
+			                                min_price, max_price, median_price, p90_price, updated_at)
+			    SELECT product_id, AVG(price), COUNT(*), SUM(price),
+			           MIN(price), MAX(price),
+			           percentile_cont(0.5) WITHIN GROUP (ORDER BY price),
+			           percentile_cont(0.9) WITHIN GROUP (ORDER BY price),
+			           CURRENT_TIMESTAMP
+			    FROM product_prices
+			    WHERE product_id = ANY(?)
+			    GROUP BY product_id
+			    ORDER BY product_id
+			    ON CONFLICT (product_id)
+			    DO UPDATE SET
+			        average_price = EXCLUDED.average_price,
+			        offer_count = EXCLUDED.offer_count,
+			        price_sum = EXCLUDED.price_sum,
+			        min_price = EXCLUDED.min_price,
+			        max_price = EXCLUDED.max_price,
+			        median_price = EXCLUDED.median_price,
+			        p90_price = EXCLUDED.p90_price,
+			        updated_at = CURRENT_TIMESTAMP
+			    RETURNING product_id, average_price, offer_count, min_price, max_price, median_price, p90_price
+			""";
+	
+	private static final String LOAD_DIRTY_SQL = "SELECT product_id FROM average_prices_dirty";
+	
+	// пометки, добавленные записью после начала этой транзакции, остаются и разбираются следующим проходом
+	private static final String CLEAR_DIRTY_SQL = "DELETE FROM average_prices_dirty WHERE product_id = ANY(?)";
+	
+	private final DataSource dataSource;
+	private final boolean averages;
+	private final int batchSize;
+	private final long intervalMillis;
+	private final Consumer<List<AveragePrice>> onRefreshed;
+	// продукт -> время первой пометки с последнего пересчета (System.nanoTime)
+	private final Map<Long, Long> dirty = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService executor;
+	private final Timer refreshTimer;
+	private final Timer lagTimer;
+	private boolean persistedLoaded;
+	
+	AggregateRefresher(DataSource dataSource, boolean averages, int batchSize, long intervalMillis,
+					   Consumer<List<AveragePrice>> onRefreshed) {
+		this.dataSource = dataSource;
+		this.averages = averages;
+		this.batchSize = batchSize;
+		this.intervalMillis = intervalMillis;
+		this.onRefreshed = onRefreshed;
+		
+		this.refreshTimer = Timer.builder("db.aggregates.refresh")
+									.description("Set-based refresh of aggregates for a batch of products")
+									.tag("scope", averages ? "averages" : "statistics")
+									.register(Metrics.globalRegistry);
+		this.lagTimer = Timer.builder("price.aggregates.lag")
+								.description("Time from the first write to a product until its aggregates were refreshed")
+								.publishPercentileHistogram()
+								.register(Metrics.globalRegistry);
+		Gauge.builder("price.aggregates.dirty", dirty, Map::size)
+				.description("Products waiting for an aggregate refresh")
+				.register(Metrics.globalRegistry);
+		
+		this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "aggregate-refresher");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	/**
+	 * Запускает периодические проходы. Пометки, сделанные до запуска, разбираются первым проходом.
+	 */
+	void start() {
+		executor.scheduleWithFixedDelay(this :: refresh, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	void markDirty(Collection<Long> productIds) {
+		long now = System.nanoTime();
+		for(Long productId : productIds) {
+			dirty.putIfAbsent(productId, now);
+		}
+	}
+	
+	int getDirtyCount() {
+		return dirty.size();
+	}
+	
+	/**
+	 * Один проход: разбирает все помеченные к его началу продукты. Неудачная пачка возвращается в множество.
+	 */
+	void refresh() {
+		if(averages && !persistedLoaded) {
+			try {
+				loadPersisted();
+				persistedLoaded = true;
+			} catch(SQLException | RuntimeException e) {
+				logger.warn("Failed to load persisted dirty products, will retry", e);
+				return;
+			}
+		}
+		while(!dirty.isEmpty()) {
+			Map<Long, Long> batch = takeBatch();
+			if(batch.isEmpty()) {
+				return;
+			}
+			try {
+				refreshBatch(batch);
+			} catch(SQLException | RuntimeException e) {
+				batch.forEach(dirty::putIfAbsent);
+				logger.warn("Failed to refresh aggregates for {} products, will retry", batch.size(), e);
+				return;
+			}
+		}
+	}
+	
+	private void loadPersisted() throws SQLException {
+		List<Long> productIds = new ArrayList<>();
+		try(Connection conn = dataSource.getConnection();
+			PreparedStatement stmt = conn.prepareStatement(LOAD_DIRTY_SQL);
+			ResultSet rs = stmt.executeQuery()) {
+			while(rs.next()) {
+				productIds.add(rs.getLong(1));
+			}
+		}
+		if(!productIds.isEmpty()) {
+			markDirty(productIds);
+			logger.info("Loaded {} products left unrefreshed by the previous run", productIds.size());
+		}
+	}
+	
+	private Map<Long, Long> takeBatch() {
+		Map<Long, Long> batch = new HashMap<>();
+		Iterator<Map.Entry<Long, Long>> iterator = dirty.entrySet().iterator();
+		while(batch.size() < batchSize && iterator.hasNext()) {
+			Map.Entry<Long, Long> entry = iterator.next();
+			batch.put(entry.getKey(), entry.getValue());
+			iterator.remove();
+		}
+		return batch;
+	}
+	
+	private void refreshBatch(Map<Long, Long> batch) throws SQLException {
+		Long[] productIds = batch.keySet().toArray(new Long[0]);
+		Arrays.sort(productIds);
+		
+		Timer.Sample sample = Timer.start();
+		List<AveragePrice> refreshed = new ArrayList<>(productIds.length);
+		try(Connection conn = dataSource.getConnection()) {
+			conn.setAutoCommit(false);
+			Array productIdArray = conn.createArrayOf("bigint", productIds);
+			try {
+				if(averages) {
+					try(PreparedStatement stmt = conn.prepareStatement(CLEAR_DIRTY_SQL)) {
+						stmt.setArray(1, productIdArray);
+						stmt.executeUpdate();
+					}
+				}
+				try(PreparedStatement stmt = conn.prepareStatement(LOCK_AVERAGES_SQL)) {
+					stmt.setArray(1, productIdArray);
+					stmt.executeQuery().close();
+				}
+				
+				try(PreparedStatement stmt = conn.prepareStatement(averages ? REFRESH_AGGREGATES_SQL : REFRESH_STATISTICS_SQL)) {
+					stmt.setArray(1, productIdArray);
+					try(ResultSet rs = stmt.executeQuery()) {
+						while(rs.next()) {
+							AveragePrice averagePrice = new AveragePrice(rs.getLong(1), rs.getDouble(2), rs.getInt(3));
+							averagePrice.setMinPrice(rs.getDouble(4));
+							averagePrice.setMaxPrice(rs.getDouble(5));
+							averagePrice.setMedianPrice(rs.getDouble(6));
+							averagePrice.setP90Price(rs.getDouble(7));
+							refreshed.add(averagePrice);
+						}
+					}
+				}
+				conn.commit();
+			} catch(SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				productIdArray.free();
+			}
+		}
+		sample.stop(refreshTimer);
+		
+		long now = System.nanoTime();
+		for(Long markedAt : batch.values()) {
+			lagTimer.record(now - markedAt, TimeUnit.NANOSECONDS);
+		}
+		onRefreshed.accept(refreshed);
+	}
+	
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограниченный кэш средних цен: сегментированный LRU с TTL. Значения хранятся в примитивных полях,
+ * {@link AveragePrice} создается только при выдаче. Записи устаревают не позже чем через TTL,
+ * даже если запись прошла мимо этого процесса.
+ */
+public class AveragePriceCache {
+	private static final int SEGMENT_COUNT = 16;
+	
+	private final Segment[] segments;
+	private final long ttlNanos;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	public AveragePriceCache(int maxSize, long ttlMillis) {
+		this.ttlNanos = ttlMillis * 1_000_000L;
+		this.segments = new Segment[SEGMENT_COUNT];
+		int segmentCapacity = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		for(int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+	
+	public AveragePrice get(long productId) {
+		Segment segment = segmentFor(productId);
+		Entry entry;
+		synchronized(segment) {
+			entry = segment.get(productId);
+			if(entry != null && entry.isExpired(System.nanoTime())) {
+				segment.remove(productId);
+				entry = null;
+			}
+		}
+		
+		if(entry == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		AveragePrice averagePrice = new AveragePrice(productId, entry.averagePrice, entry.offerCount);
+		if(entry.hasStatistics()) {
+			averagePrice.setMinPrice(entry.minPrice);
+			averagePrice.setMaxPrice(entry.maxPrice);
+			averagePrice.setMedianPrice(entry.medianPrice);
+			averagePrice.setP90Price(entry.p90Price);
+		}
+		return averagePrice;
+	}
+	
+	/**
+	 * Запись новой средней; статистика записи сохраняется до следующего пересчета.
+	 */
+	public void put(long productId, double averagePrice, int offerCount) {
+		Segment segment = segmentFor(productId);
+		long now = System.nanoTime();
+		synchronized(segment) {
+			Entry existing = segment.get(productId);
+			Entry entry = existing != null && !existing.isExpired(now)
+					? existing.withAverage(averagePrice, offerCount, now + ttlNanos)
+					: new Entry(averagePrice, offerCount, now + ttlNanos);
+			segment.put(productId, entry);
+		}
+	}
+	
+	/**
+	 * Для заполнения при чтении: не перетирает значение, положенное записью после того,
+	 * как читатель сходил в базу.
+	 */
+	public void putIfAbsent(long productId, double averagePrice, int offerCount) {
+		putIfAbsent(new AveragePrice(productId, averagePrice, offerCount));
+	}
+	
+	public void putIfAbsent(AveragePrice averagePrice) {
+		long productId = averagePrice.getProductId();
+		Segment segment = segmentFor(productId);
+		long now = System.nanoTime();
+		Entry entry = new Entry(averagePrice.getAveragePrice(), averagePrice.getOfferCount(), now + ttlNanos);
+		if(averagePrice.getMinPrice() != null) {
+			entry = entry.withStatistics(averagePrice.getMinPrice(), averagePrice.getMaxPrice(),
+					averagePrice.getMedianPrice(), averagePrice.getP90Price());
+		}
+		synchronized(segment) {
+			Entry existing = segment.get(productId);
+			if(existing == null || existing.isExpired(now)) {
+				segment.put(productId, entry);
+			}
+		}
+	}
+	
+	/**
+	 * Результат асинхронного пересчета статистики; меняет только закэшированные записи, среднюю не трогает.
+	 */
+	public void putStatistics(long productId, double minPrice, double maxPrice, double medianPrice, double p90Price) {
+		Segment segment = segmentFor(productId);
+		synchronized(segment) {
+			Entry existing = segment.get(productId);
+			if(existing != null) {
+				segment.replace(productId, existing.withStatistics(minPrice, maxPrice, medianPrice, p90Price));
+			}
+		}
+	}
+	
+	public void invalidate(long productId) {
+		Segment segment = segmentFor(productId);
+		synchronized(segment) {
+			segment.remove(productId);
+		}
+	}
+	
+	public long getHitCount() {
+		return hits.sum();
+	}
+	
+	public long getMissCount() {
+		return misses.sum();
+	}
+	
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+	
+	public long size() {
+		long size = 0;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+	
+	private Segment segmentFor(long productId) {
+		int hash = Long.hashCode(productId);
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+	}
+	
+	private static final class Entry {
+		private final double averagePrice;
+		private final int offerCount;
+		private final long expiresAt;
+		// NaN, пока статистика не пересчитана
+		private final double minPrice;
+		private final double maxPrice;
+		private final double medianPrice;
+		private final double p90Price;
+		
+		Entry(double averagePrice, int offerCount, long expiresAt) {
+			this(averagePrice, offerCount, expiresAt, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+		}
+		
+		private Entry(double averagePrice, int offerCount, long expiresAt,
+					  double minPrice, double maxPrice, double medianPrice, double p90Price) {
+			this.averagePrice = averagePrice;
+			this.offerCount = offerCount;
+			this.expiresAt = expiresAt;
+			this.minPrice = minPrice;
+			this.maxPrice = maxPrice;
+			this.medianPrice = medianPrice;
+			this.p90Price = p90Price;
+		}
+		
+		Entry withAverage(double averagePrice, int offerCount, long expiresAt) {
+			return new Entry(averagePrice, offerCount, expiresAt, minPrice, maxPrice, medianPrice, p90Price);
+		}
+		
+		Entry withStatistics(double minPrice, double maxPrice, double medianPrice, double p90Price) {
+			return new Entry(averagePrice, offerCount, expiresAt, minPrice, maxPrice, medianPrice, p90Price);
+		}
+		
+		boolean hasStatistics() {
+			return !Double.isNaN(minPrice);
+		}
+		
+		boolean isExpired(long now) {
+			return now - expiresAt > 0;
+		}
+	}
+	
+	private final class Segment extends LinkedHashMap<Long, Entry> {
+		private final int capacity;
+		
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			if(size() > capacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+
+import java.util.List;
+
+/**
+ * Уведомление о зафиксированных средних ценах. Вызывается на потоке записи после commit, поэтому
+ * реализация не должна блокироваться.
+ */
+@FunctionalInterface
+public interface AveragePriceListener {
+	void onAveragePricesChanged(List<AveragePrice> averagePrices);
+}
@@ -0,0 +1,285 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+import com.example.model.BulkLoadResult;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Загрузка полных снимков каталога: строки потоком уходят через COPY во временную staging-таблицу,
+ * затем одной транзакцией сливаются в product_prices, а average_prices затронутых продуктов
+ * пересобираются set-based запросом.
+ */
+public class BulkLoadService {
+	private static final Logger logger = LoggerFactory.getLogger(BulkLoadService.class);
+	
+	private static final String CREATE_STAGING_SQL = """
+			    CREATE TEMP TABLE price_staging (
+			        seq BIGSERIAL,
+			        product_id BIGINT NOT NULL,
+			        manufacturer_name VARCHAR(255) NOT NULL,
+			        price DECIMAL(10,2) NOT NULL
+			    ) ON COMMIT DROP
+			""";
+	
+	private static final String COPY_SQL =
+			"COPY price_staging (product_id, manufacturer_name, price) FROM STDIN WITH (FORMAT csv, HEADER %s)";
+	
+	private static final String INVALID_ROWS_SQL = """
+			    SELECT COUNT(*) FROM price_staging WHERE price <= 0 OR btrim(manufacturer_name) = ''
+			""";
+	
+	// новые производители снимка добавляются в словарь в той же транзакции; кэш ManufacturerDictionary
+	// узнает их id при первом обычном обновлении
+	private static final String MANUFACTURERS_SQL = """
+			    INSERT INTO manufacturers (name)
+			    SELECT DISTINCT manufacturer_name FROM price_staging
+			    ORDER BY manufacturer_name
+			    ON CONFLICT (name) DO NOTHING
+			""";
+	
+	// повторы одной пары в снимке: побеждает последняя строка; неизменные цены не переписываются
+	private static final String MERGE_SQL = """
+			    INSERT INTO product_prices (product_id, manufacturer_id, price, previous_price, updated_at)
+			    SELECT DISTINCT ON (s.product_id, m.id)
+			           s.product_id, m.id, s.price, NULL, CURRENT_TIMESTAMP
+			    FROM price_staging s
+			    JOIN manufacturers m ON m.name = s.manufacturer_name
+			    ORDER BY s.product_id, m.id, s.seq DESC
+			    ON CONFLICT (product_id, manufacturer_id)
+			    DO UPDATE SET
+			        previous_price = product_prices.price,
+			        price = EXCLUDED.price,
+			        updated_at = CURRENT_TIMESTAMP
+			    WHERE product_prices.price IS DISTINCT FROM EXCLUDED.price
+			""";
+	
+	// история снимка пишется в той же транзакции одним set-based insert'ом, без очереди PriceHistoryWriter
+	private static final String HISTORY_SQL = """
+			    INSERT INTO price_history (product_id, manufacturer_id, price, recorded_at)
+			    SELECT DISTINCT ON (s.product_id, m.id)
+			           s.product_id, m.id, s.price, CURRENT_TIMESTAMP
+			    FROM price_staging s
+			    JOIN manufacturers m ON m.name = s.manufacturer_name
+			    ORDER BY s.product_id, m.id, s.seq DESC
+			""";
+	
+	// блокировка строк агрегатов до пересборки: инкрементальные записи, начавшиеся раньше, успевают
+	// зафиксироваться и попадают в пересчет, начавшиеся позже прибавят свои дельты поверх него
+	private static final String LOCK_AVERAGES_SQL = """
+			    SELECT product_id
+			    FROM average_prices
+			    WHERE product_id IN (SELECT product_id FROM price_staging)
+			    ORDER BY product_id
+			    FOR UPDATE
+			""";
+	
+	private static final String REBUILD_AVERAGES_SQL = """
+			    INSERT INTO average_prices (product_id, average_price, offer_count, price_sum, updated_at)
+			    SELECT product_id, AVG(price), COUNT(*), SUM(price), CURRENT_TIMESTAMP
+			    FROM product_prices
+			    WHERE product_id IN (SELECT product_id FROM price_staging)
+			    GROUP BY product_id
+			    ORDER BY product_id
+			    ON CONFLICT (product_id)
+			    DO UPDATE SET
+			        average_price = EXCLUDED.average_price,
+			        offer_count = EXCLUDED.offer_count,
+			        price_sum = EXCLUDED.price_sum,
+			        updated_at = CURRENT_TIMESTAMP
+			    RETURNING product_id, average_price, offer_count
+			""";
+	
+	private final DatabaseService databaseService;
+	private final JsonFactory jsonFactory = new JsonFactory();
+	private final Timer rebuildTimer;
+	private final DistributionSummary rowsSummary;
+	
+	public BulkLoadService(DatabaseService databaseService) {
+		this.databaseService = databaseService;
+		this.rebuildTimer = Timer.builder("db.averages.rebuild")
+									.description("Set-based rebuild of average prices after a bulk load")
+									.register(Metrics.globalRegistry);
+		this.rowsSummary = DistributionSummary.builder("price.bulk.rows")
+								   .baseUnit("rows")
+								   .register(Metrics.globalRegistry);
+	}
+	
+	/**
+	 * CSV в формате COPY ... (FORMAT csv): {@code product_id,manufacturer_name,price}, по строке на предложение.
+	 */
+	public BulkLoadResult loadCsv(InputStream csv, boolean header) {
+		return load(String.format(COPY_SQL, header), copyStream -> {
+			csv.transferTo(copyStream);
+			return -1;
+		});
+	}
+	
+	/**
+	 * JSON-массив в формате {@code POST /api/prices/update}; читается потоково и перекодируется в CSV на лету.
+	 */
+	public BulkLoadResult loadJson(InputStream json) {
+		return load(String.format(COPY_SQL, false), copyStream -> {
+			long rows = 0;
+			Writer writer = new BufferedWriter(new OutputStreamWriter(copyStream, StandardCharsets.UTF_8), 64 * 1024);
+			try(JsonParser parser = jsonFactory.createParser(json)) {
+				if(parser.nextToken() != JsonToken.START_ARRAY) {
+					throw new IllegalArgumentException("Expected a JSON array of price updates");
+				}
+				while(parser.nextToken() == JsonToken.START_OBJECT) {
+					writeCsvRow(parser, writer, rows);
+					rows++;
+				}
+			}
+			writer.flush();
+			return rows;
+		});
+	}
+	
+	private void writeCsvRow(JsonParser parser, Writer writer, long position) throws IOException {
+		Long productId = null;
+		String manufacturerName = null;
+		String price = null;
+		while(parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			parser.nextToken();
+			switch(field) {
+				case "product_id" -> productId = parser.getLongValue();
+				case "manufacturer_name" -> manufacturerName = parser.getValueAsString();
+				case "price" -> price = parser.getValueAsString();
+				default -> parser.skipChildren();
+			}
+		}
+		if(productId == null || manufacturerName == null || price == null) {
+			throw new IllegalArgumentException("Element #" + position + " must have product_id, manufacturer_name and price");
+		}
+		
+		writer.write(Long.toString(productId));
+		writer.write(',');
+		writer.write('"');
+		writer.write(manufacturerName.replace("\"", "\"\""));
+		writer.write('"');
+		writer.write(',');
+		writer.write(price);
+		writer.write('\n');
+	}
+	
+	private BulkLoadResult load(String copySql, CopySource source) {
+		long started = System.nanoTime();
+		// до транзакции: строки HISTORY_SQL без секции легли бы в default-секцию, и секция месяца уже не создалась бы
+		databaseService.ensureHistoryPartitions();
+		try(Connection conn = databaseService.getDataSource().getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				try(Statement stmt = conn.createStatement()) {
+					stmt.execute(CREATE_STAGING_SQL);
+				}
+				
+				long rowsLoaded;
+				try(PGCopyOutputStream copyStream = new PGCopyOutputStream(conn.unwrap(PGConnection.class), copySql)) {
+					long written = source.copy(copyStream);
+					long copied = copyStream.endCopy();
+					rowsLoaded = written >= 0 ? written : copied;
+				}
+				
+				long invalidRows = queryCount(conn, INVALID_ROWS_SQL);
+				if(invalidRows > 0) {
+					throw new IllegalArgumentException(invalidRows + " rows have a non-positive price or an empty manufacturer name");
+				}
+				
+				long offersMerged;
+				try(Statement stmt = conn.createStatement()) {
+					stmt.executeUpdate(MANUFACTURERS_SQL);
+					offersMerged = stmt.executeUpdate(MERGE_SQL);
+					if(databaseService.isHistoryEnabled()) {
+						stmt.executeUpdate(HISTORY_SQL);
+					}
+					stmt.executeQuery(LOCK_AVERAGES_SQL).close();
+				}
+				
+				List<AveragePrice> averagePrices = new ArrayList<>();
+				Timer.Sample sample = Timer.start();
+				try(PreparedStatement stmt = conn.prepareStatement(REBUILD_AVERAGES_SQL);
+					ResultSet rs = stmt.executeQuery()) {
+					sample.stop(rebuildTimer);
+					while(rs.next()) {
+						averagePrices.add(new AveragePrice(rs.getLong(1), rs.getDouble(2), rs.getInt(3)));
+					}
+				}
+				
+				conn.commit();
+				
+				databaseService.pricesReplaced();
+				databaseService.averagePricesCommitted(averagePrices);
+				
+				rowsSummary.record(rowsLoaded);
+				long productsRebuilt = averagePrices.size();
+				long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+				BulkLoadResult result = new BulkLoadResult(rowsLoaded, offersMerged, productsRebuilt, elapsedMillis);
+				logger.info("Bulk load finished: {} rows, {} offers merged, {} products rebuilt in {} ms ({} rows/s)",
+						rowsLoaded, offersMerged, productsRebuilt, elapsedMillis, Math.round(result.getRowsPerSecond()));
+				return result;
+				
+			} catch(SQLException | IOException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			}
+		} catch(SQLException e) {
+			if(isDataError(e)) {
+				throw new IllegalArgumentException("Invalid bulk load data: " + e.getMessage(), e);
+			}
+			logger.error("Database error during bulk load", e);
+			throw new RuntimeException("Failed to bulk load prices", e);
+		} catch(JsonProcessingException e) {
+			throw new IllegalArgumentException("Invalid bulk load data: " + e.getOriginalMessage(), e);
+		} catch(IOException e) {
+			logger.error("Failed to stream bulk load data", e);
+			throw new RuntimeException("Failed to read bulk load data", e);
+		}
+	}
+	
+	// классы SQLSTATE 22 (data exception) и 23 (integrity constraint violation) — ошибки во входных данных
+	private boolean isDataError(SQLException e) {
+		String state = e.getSQLState();
+		return state != null && (state.startsWith("22") || state.startsWith("23"));
+	}
+	
+	private long queryCount(Connection conn, String sql) throws SQLException {
+		try(Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(sql)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+	
+	@FunctionalInterface
+	private interface CopySource {
+		/**
+		 * Возвращает число записанных строк или -1, если его должен сообщить сервер.
+		 */
+		long copy(PGCopyOutputStream copyStream) throws IOException;
+	}
+}
@@ -1,46 +1,274 @@
 package com.example.service;
 
+import com.example.config.ApplicationConfig;
+import com.example.migrations.DatabaseMigrator;
 import com.example.model.AveragePrice;
+import com.example.model.PriceHistory;
 import com.example.model.PriceUpdate;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.io.IOException;
-import java.io.InputStream;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DatabaseService {
 	private static final Logger logger = LoggerFactory.getLogger(DatabaseService.class);
 	
+	/*
+	 * Один запрос на чанк: upsert всех строк и инкрементальное обновление агрегатов.
+	 * В DO UPDATE выражения SET видят старую версию строки, поэтому previous_price получает
+	 * цену, которую заменяет обновление (под блокировкой строки, даже при конкурентной записи),
+	 * а для вставленных строк остается NULL. Дельты суммы и количества складываются в average_prices
+	 * под блокировкой ее строки, так что стоимость записи не зависит от числа предложений продукта.
+	 * Строки с неизменной ценой не переписываются и в upserted не попадают: продукт, у которого ничего
+	 * не изменилось, не трогает average_prices. changed_rows — число реально записанных строк чанка.
+	 * Производитель передается id из {@link ManufacturerDictionary}: ключ конфликта — (BIGINT, INT).
+	 */
+	private static final String UPSERT_PRICES_SQL = """
+			    WITH incoming AS (
+			        SELECT *
+			        FROM unnest(?::bigint[], ?::int[], ?::float8[]) AS t(product_id, manufacturer_id, price)
+			        ORDER BY product_id, manufacturer_id
+			    ),
+			    upserted AS (
+			        INSERT INTO product_prices (product_id, manufacturer_id, price, previous_price, updated_at)
+			        SELECT product_id, manufacturer_id, price, NULL, CURRENT_TIMESTAMP
+			        FROM incoming
+			        ON CONFLICT (product_id, manufacturer_id)
+			        DO UPDATE SET
+			            previous_price = product_prices.price,
+			            price = EXCLUDED.price,
+			            updated_at = CURRENT_TIMESTAMP
+			        WHERE product_prices.price IS DISTINCT FROM EXCLUDED.price
+			        RETURNING product_id, price, previous_price
+			    ),
+			    deltas AS (
+			        SELECT product_id,
+			               SUM(price - COALESCE(previous_price, 0)) AS sum_delta,
+			               COUNT(*) FILTER (WHERE previous_price IS NULL) AS count_delta
+			        FROM upserted
+			        GROUP BY product_id
+			    )
+			    INSERT INTO average_prices (product_id, price_sum, offer_count, average_price, updated_at)
+			    SELECT product_id, sum_delta, count_delta, COALESCE(sum_delta / NULLIF(count_delta, 0), 0), CURRENT_TIMESTAMP
+			    FROM deltas
+			    ORDER BY product_id
+			    ON CONFLICT (product_id)
+			    DO UPDATE SET
+			        price_sum = average_prices.price_sum + EXCLUDED.price_sum,
+			        offer_count = average_prices.offer_count + EXCLUDED.offer_count,
+			        average_price = COALESCE((average_prices.price_sum + EXCLUDED.price_sum)
+			                / NULLIF(average_prices.offer_count + EXCLUDED.offer_count, 0), 0),
+			        updated_at = CURRENT_TIMESTAMP
+			    RETURNING product_id, average_price, offer_count, (SELECT COUNT(*) FROM upserted) AS changed_rows
+			""";
+	
+	/*
+	 * Режим db.average.mode=async: только цены, агрегаты пересчитывает AggregateRefresher. Изменившиеся
+	 * продукты помечаются в average_prices_dirty тем же запросом, то есть в транзакции записи: пометка
+	 * переживает падение процесса между commit и пересчетом.
+	 */
+	private static final String UPSERT_RAW_PRICES_SQL = """
+			    WITH upserted AS (
+			        INSERT INTO product_prices (product_id, manufacturer_id, price, previous_price, updated_at)
+			        SELECT product_id, manufacturer_id, price, NULL, CURRENT_TIMESTAMP
+			        FROM unnest(?::bigint[], ?::int[], ?::float8[]) AS t(product_id, manufacturer_id, price)
+			        ORDER BY product_id, manufacturer_id
+			        ON CONFLICT (product_id, manufacturer_id)
+			        DO UPDATE SET
+			            previous_price = product_prices.price,
+			            price = EXCLUDED.price,
+			            updated_at = CURRENT_TIMESTAMP
+			        WHERE product_prices.price IS DISTINCT FROM EXCLUDED.price
+			        RETURNING product_id
+			    ),
+			    marked AS (
+			        INSERT INTO average_prices_dirty (product_id)
+			        SELECT DISTINCT product_id FROM upserted
+			        ORDER BY product_id
+			        ON CONFLICT (product_id) DO NOTHING
+			    )
+			    SELECT product_id FROM upserted
+			""";
+	
+	private static final String STREAM_AVERAGES_SQL = """
+			    SELECT product_id, average_price, offer_count, min_price, max_price, median_price, p90_price
+			    FROM average_prices
+			    WHERE product_id > ?
+			    ORDER BY product_id
+			    LIMIT ?
+			""";
+	
+	// date_trunc по UTC, чтобы границы дней не зависели от часового пояса сессии
+	private static final String PRICE_HISTORY_SQL = """
+			    SELECT (recorded_at AT TIME ZONE 'UTC')::date AS day,
+			           AVG(price), MIN(price), MAX(price), SUM(price), COUNT(*)
+			    FROM price_history
+			    WHERE product_id = ? AND recorded_at >= ? AND recorded_at < ?
+			    GROUP BY day
+			    ORDER BY day
+			""";
+	
+	private static final String WARM_INDEX_SQL = """
+			    SELECT product_id, average_price, offer_count, min_price, max_price, median_price, p90_price
+			    FROM average_prices
+			""";
+	
+	private static final String AVERAGE_PRICE_COLUMNS =
+			"product_id, average_price, offer_count, min_price, max_price, median_price, p90_price";
+	
 	private final DataSource dataSource;
+	private final DataSource readDataSource;
+	private final ReplicaRouter replicaRouter;
+	private final HistoryPartitions historyPartitions;
+	private final PriceHistoryWriter historyWriter;
+	private final AggregateRefresher aggregateRefresher;
+	private final boolean asyncAverages;
+	private final LastSeenPrices lastSeenPrices;
+	private final ManufacturerDictionary manufacturers = new ManufacturerDictionary();
+	private final Counter unchangedCounter;
+	private final int batchSize;
+	private final int poolSize;
+	private final int streamFetchSize;
+	private final AveragePriceCache averagePriceCache;
+	private final PriceIndex priceIndex;
+	private final List<AveragePriceListener> averagePriceListeners = new CopyOnWriteArrayList<>();
+	private final Timer upsertTimer;
+	private final AtomicBoolean backgroundTasksStarted = new AtomicBoolean();
 	
 	public DatabaseService() {
-		this.dataSource = createDataSource();
+		this(ApplicationConfig.load());
 	}
 	
-	private DataSource createDataSource() {
+	public DatabaseService(ApplicationConfig config) {
+		this.dataSource = createDataSource(config, "db");
+		
+		String readUrl = config.getString("db.read.url", "");
+		if(!readUrl.isBlank()) {
+			this.readDataSource = createDataSource(config, "db.read");
+			this.replicaRouter = new ReplicaRouter(dataSource, readDataSource,
+					config.getLong("db.read.max-lag-ms", 1000),
+					config.getLong("db.read.lag-check-interval-ms", 1000));
+		} else {
+			this.readDataSource = null;
+			this.replicaRouter = null;
+		}
+		if(config.getBoolean("history.enabled", true)) {
+			this.historyPartitions = new HistoryPartitions(dataSource);
+			this.historyWriter = new PriceHistoryWriter(dataSource, historyPartitions, manufacturers,
+					config.getInt("history.queue.capacity", 100_000),
+					config.getInt("history.batch-size", 1000),
+					config.getLong("history.flush-interval-ms", 200));
+		} else {
+			this.historyPartitions = null;
+			this.historyWriter = null;
+		}
+		this.batchSize = config.getInt("db.batch.size", 500);
+		this.poolSize = config.getInt("db.pool.max-size", 20);
+		this.streamFetchSize = config.getInt("db.stream.fetch-size", 1000);
+		this.averagePriceCache = new AveragePriceCache(
+				config.getInt("cache.average-prices.max-size", 100_000),
+				config.getLong("cache.average-prices.ttl-ms", 60_000));
+		
+		String averageMode = config.getString("db.average.mode", "sync");
+		if(!averageMode.equals("sync") && !averageMode.equals("async")) {
+			throw new IllegalArgumentException("Unknown db.average.mode: " + averageMode);
+		}
+		this.asyncAverages = averageMode.equals("async");
+		if(asyncAverages) {
+			// проход раз в половину допустимого отставания: остальное время — на сам пересчет
+			long maxStalenessMillis = config.getLong("db.average.max-staleness-ms", 1000);
+			this.aggregateRefresher = new AggregateRefresher(dataSource, true,
+					config.getInt("statistics.batch-size", 1000),
+					Math.max(1, maxStalenessMillis / 2),
+					this :: averagesRefreshed);
+			logger.info("Average prices are recomputed asynchronously within {} ms", maxStalenessMillis);
+		} else if(config.getBoolean("statistics.enabled", true)) {
+			this.aggregateRefresher = new AggregateRefresher(dataSource, false,
+					config.getInt("statistics.batch-size", 1000),
+					config.getLong("statistics.refresh-interval-ms", 500),
+					this :: statisticsRefreshed);
+		} else {
+			this.aggregateRefresher = null;
+		}
+		
+		this.priceIndex = config.getBoolean("index.enabled", false)
+				? new PriceIndex(config.getInt("index.expected-size", 1_000_000))
+				: null;
+		
+		int lastSeenSize = config.getInt("db.last-seen.max-size", 0);
+		this.lastSeenPrices = lastSeenSize > 0 ? new LastSeenPrices(lastSeenSize) : null;
+		
+		MeterRegistry registry = Metrics.globalRegistry;
+		this.unchangedCounter = Counter.builder("db.prices.unchanged")
+										.description("Price updates skipped because the stored price was already equal")
+										.baseUnit("updates")
+										.register(registry);
+		this.upsertTimer = Timer.builder("db.prices.upsert")
+								   .description("Upsert of a price chunk, in sync mode including the incremental average update")
+								   .tag("mode", averageMode)
+								   .publishPercentileHistogram()
+								   .register(registry);
+		bindCacheMetrics(registry);
+		if(priceIndex != null) {
+			Gauge.builder("price.index.size", priceIndex, PriceIndex::size)
+					.description("Products held in the in-memory price index")
+					.register(registry);
+		}
+	}
+	
+	/**
+	 * Пул для {@code prefix} ({@code db} или {@code db.read}); незаданные для реплики параметры берутся у основного пула.
+	 */
+	private DataSource createDataSource(ApplicationConfig props, String prefix) {
 		try {
-			Properties props = loadConfiguration();
-			
 			HikariConfig config = new HikariConfig();
-			config.setJdbcUrl(props.getProperty("db.url"));
-			config.setUsername(props.getProperty("db.username"));
-			config.setPassword(props.getProperty("db.password"));
+			config.setPoolName(prefix.equals("db") ? "primary" : "replica");
+			config.setJdbcUrl(setting(props, prefix, ".url"));
+			config.setUsername(setting(props, prefix, ".username"));
+			config.setPassword(setting(props, prefix, ".password"));
+			
+			config.setMaximumPoolSize(Integer.parseInt(setting(props, prefix, ".pool.max-size", "20")));
+			config.setMinimumIdle(Integer.parseInt(setting(props, prefix, ".pool.min-idle", "5")));
+			config.setConnectionTimeout(Long.parseLong(setting(props, prefix, ".pool.connection-timeout", "30000")));
+			config.setIdleTimeout(Long.parseLong(setting(props, prefix, ".pool.idle-timeout", "600000")));
+			config.setMaxLifetime(Long.parseLong(setting(props, prefix, ".pool.max-lifetime", "1800000")));
+			if(!prefix.equals("db")) {
+				config.setReadOnly(true);
+			}
 			
-			config.setMaximumPoolSize(Integer.parseInt(props.getProperty("db.pool.max-size")));
-			config.setMinimumIdle(Integer.parseInt(props.getProperty("db.pool.min-idle")));
-			config.setConnectionTimeout(Long.parseLong(props.getProperty("db.pool.connection-timeout")));
-			config.setIdleTimeout(Long.parseLong(props.getProperty("db.pool.idle-timeout")));
-			config.setMaxLifetime(Long.parseLong(props.getProperty("db.pool.max-lifetime")));
+			// gauges hikaricp.connections.active/idle/pending и таймер hikaricp.connections.acquire
+			config.setMetricRegistry(Metrics.globalRegistry);
+			// пул создается без соединения с базой: старт не ждет базу, соединения открывает warmUpPools()
+			config.setInitializationFailTimeout(-1);
 			
 			return new HikariDataSource(config);
 			
@@ -49,56 +277,207 @@ public class DatabaseService {
 		}
 	}
 	
-	private Properties loadConfiguration() throws IOException {
-		Properties props = new Properties();
-		
-		try(InputStream is = getClass().getClassLoader()
-									 .getResourceAsStream("application.properties")) {
-			if(is != null) {
-				props.load(is);
+	private String setting(ApplicationConfig props, String prefix, String key) {
+		return setting(props, prefix, key, null);
+	}
+	
+	private String setting(ApplicationConfig props, String prefix, String key, String defaultValue) {
+		return props.getString(prefix + key, props.getString("db" + key, defaultValue));
+	}
+	
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	private void bindCacheMetrics(MeterRegistry registry) {
+		AveragePriceCache cache = averagePriceCache;
+		FunctionCounter.builder("cache.gets", cache, AveragePriceCache::getHitCount)
+				.tags("cache", "average-prices", "result", "hit")
+				.register(registry);
+		FunctionCounter.builder("cache.gets", cache, AveragePriceCache::getMissCount)
+				.tags("cache", "average-prices", "result", "miss")
+				.register(registry);
+		FunctionCounter.builder("cache.evictions", cache, AveragePriceCache::getEvictionCount)
+				.tag("cache", "average-prices")
+				.register(registry);
+		Gauge.builder("cache.size", cache, AveragePriceCache::size)
+				.tag("cache", "average-prices")
+				.register(registry);
+	}
+	
+	DataSource getDataSource() {
+		return dataSource;
+	}
+	
+	/**
+	 * Применяет миграции Liquibase к основной базе.
+	 */
+	public void runMigrations() {
+		long started = System.nanoTime();
+		DatabaseMigrator.runMigrations(dataSource);
+		logger.info("Database migrations applied in {} ms", (System.nanoTime() - started) / 1_000_000);
+	}
+	
+	/**
+	 * Запускает фоновые задачи: замер отставания реплики и пересчет агрегатов. Вызывается после миграций —
+	 * до них таблиц, которые читает пересчет, может не быть. Повторный вызов ничего не делает.
+	 */
+	public void startBackgroundTasks() {
+		if(!backgroundTasksStarted.compareAndSet(false, true)) {
+			return;
+		}
+		if(replicaRouter != null) {
+			replicaRouter.start();
+		}
+		if(aggregateRefresher != null) {
+			aggregateRefresher.start();
+		}
+	}
+	
+	/**
+	 * Открывает min-idle соединений в каждом пуле, чтобы первые запросы не платили за установку соединения.
+	 * Недоступная реплика не мешает готовности: чтения тогда идут в основную базу.
+	 */
+	public void warmUpPools() throws SQLException {
+		long started = System.nanoTime();
+		warmUp(dataSource);
+		if(readDataSource != null) {
+			try {
+				warmUp(readDataSource);
+			} catch(SQLException e) {
+				logger.warn("Failed to warm up the replica pool, reads will fall back to the primary", e);
 			}
 		}
-		
-		overrideWithEnvVars(props);
-		
-		return props;
+		logger.info("Connection pools warmed up in {} ms", (System.nanoTime() - started) / 1_000_000);
+	}
+	
+	private void warmUp(DataSource source) throws SQLException {
+		HikariDataSource pool = (HikariDataSource) source;
+		List<Connection> connections = new ArrayList<>(pool.getMinimumIdle());
+		try {
+			// соединения держатся до конца, иначе пул отдавал бы одно и то же
+			for(int i = 0; i < Math.max(1, pool.getMinimumIdle()); i++) {
+				Connection conn = pool.getConnection();
+				connections.add(conn);
+				if(!conn.isValid(5)) {
+					throw new SQLException("Connection from pool " + pool.getPoolName() + " is not valid");
+				}
+			}
+		} finally {
+			for(Connection conn : connections) {
+				conn.close();
+			}
+		}
+	}
+	
+	public int getPoolSize() {
+		return poolSize;
 	}
 	
-	private void overrideWithEnvVars(Properties props) {
-		props.replaceAll((key, value) -> {
-			String envKey = key.toString().replace('.', '_').toUpperCase();
-			return System.getenv().getOrDefault(envKey, value.toString());
-		});
+	public AveragePriceCache getAveragePriceCache() {
+		return averagePriceCache;
 	}
 	
+	/**
+	 * Индекс агрегатов в памяти или {@code null}, если {@code index.enabled=false}.
+	 */
+	public PriceIndex getPriceIndex() {
+		return priceIndex;
+	}
+	
+	/**
+	 * Заполняет {@link PriceIndex} из average_prices серверным курсором. Записи, прошедшие во время заполнения,
+	 * не перетираются прочитанными раньше строками, поэтому заполнение можно повторить после ошибки. Пока индекс
+	 * не готов, чтения идут в базу.
+	 */
+	public void warmPriceIndex() throws SQLException {
+		if(priceIndex == null) {
+			return;
+		}
+		long started = System.nanoTime();
+		try(Connection conn = dataSource.getConnection()) {
+			conn.setAutoCommit(false);
+			try(PreparedStatement stmt = conn.prepareStatement(WARM_INDEX_SQL)) {
+				stmt.setFetchSize(streamFetchSize);
+				try(ResultSet rs = stmt.executeQuery()) {
+					while(rs.next()) {
+						priceIndex.putIfAbsent(rs.getLong(1), rs.getDouble(2), rs.getInt(3), getDoubleOrNaN(rs, 4),
+								getDoubleOrNaN(rs, 5), getDoubleOrNaN(rs, 6), getDoubleOrNaN(rs, 7));
+					}
+				}
+				conn.commit();
+			}
+			priceIndex.markReady();
+			logger.info("Price index warmed with {} products in {} ms", priceIndex.size(),
+					(System.nanoTime() - started) / 1_000_000);
+		}
+	}
 	
 	public void updatePrice(PriceUpdate priceUpdate) {
+		updatePrices(List.of(priceUpdate));
+	}
+	
+	/**
+	 * Записывает пакет обновлений в одной транзакции чанками по {@code db.batch.size}: каждый чанк —
+	 * один запрос, который обновляет цены и инкрементально поправляет сумму и количество в average_prices.
+	 * В режиме {@code db.average.mode=async} запрос меняет только product_prices, а продукты передаются
+	 * на пересчет {@link AggregateRefresher}. Пакет не должен содержать двух обновлений одной пары
+	 * (product_id, manufacturer_name).
+	 * <p>
+	 * Обновления, не меняющие хранимую цену, не переписывают строку и не трогают средние; их число
+	 * пишется в лог и в счетчик {@code db.prices.unchanged}. При {@code db.last-seen.max-size > 0} такие
+	 * обновления отбрасываются еще до транзакции по последним записанным этим процессом ценам.
+	 */
+	public void updatePrices(List<PriceUpdate> priceUpdates) {
+		if(priceUpdates.isEmpty()) {
+			return;
+		}
+		
+		List<PriceUpdate> candidates = lastSeenPrices != null ? lastSeenPrices.changed(priceUpdates) : priceUpdates;
+		if(candidates.isEmpty()) {
+			unchangedCounter.increment(priceUpdates.size());
+			if(historyWriter != null) {
+				historyWriter.record(priceUpdates, System.currentTimeMillis());
+			}
+			logger.info("Batch of {} price updates skipped, no price changed", priceUpdates.size());
+			return;
+		}
+		
 		try(Connection conn = dataSource.getConnection()) {
+			// новые имена фиксируются в словаре до транзакции записи, в режиме autocommit
+			Integer[] manufacturerIds = manufacturers.resolve(conn, candidates);
 			conn.setAutoCommit(false);
 			try {
-				String upsertSql = """
-						    INSERT INTO product_prices (product_id, manufacturer_name, price, updated_at)
-						    VALUES (?, ?, ?, CURRENT_TIMESTAMP)
-						    ON CONFLICT (product_id, manufacturer_name)
-						    DO UPDATE SET price = EXCLUDED.price, updated_at = CURRENT_TIMESTAMP
-						""";
-				
-				try(PreparedStatement stmt = conn.prepareStatement(upsertSql)) {
-					stmt.setLong(1, priceUpdate.getProductId());
-					stmt.setString(2, priceUpdate.getManufacturerName());
-					stmt.setDouble(3, priceUpdate.getPrice());
-					stmt.executeUpdate();
+				List<AveragePrice> averagePrices = new ArrayList<>();
+				Set<Long> changedProductIds = new LinkedHashSet<>();
+				int changed = 0;
+				try(PreparedStatement stmt = conn.prepareStatement(asyncAverages ? UPSERT_RAW_PRICES_SQL : UPSERT_PRICES_SQL)) {
+					for(int from = 0; from < candidates.size(); from += batchSize) {
+						int to = Math.min(from + batchSize, candidates.size());
+						changed += upsertChunk(conn, stmt, candidates.subList(from, to),
+								Arrays.copyOfRange(manufacturerIds, from, to), averagePrices, changedProductIds);
+					}
 				}
 				
-				recalculateAveragePrice(conn, priceUpdate.getProductId());
-				
 				conn.commit();
-				logger.info("Price updated successfully for product {} from manufacturer {}",
-						priceUpdate.getProductId(), priceUpdate.getManufacturerName());
+				if(lastSeenPrices != null) {
+					lastSeenPrices.record(candidates);
+				}
+				if(historyWriter != null) {
+					historyWriter.record(priceUpdates, System.currentTimeMillis());
+				}
+				if(asyncAverages) {
+					aggregateRefresher.markDirty(changedProductIds);
+				} else {
+					averagePricesCommitted(averagePrices);
+				}
+				int unchanged = priceUpdates.size() - changed;
+				unchangedCounter.increment(unchanged);
+				logger.info("Batch of {} price updates committed, {} unchanged skipped", priceUpdates.size(), unchanged);
 				
 			} catch(SQLException e) {
 				conn.rollback();
-				logger.error("Failed to update price", e);
+				logger.error("Failed to update prices", e);
 				throw e;
 			}
 		} catch(SQLException e) {
@@ -107,57 +486,265 @@ public class DatabaseService {
 		}
 	}
 	
-	private void recalculateAveragePrice(Connection conn, Long productId) throws SQLException {
-		String avgSql = """
-				    SELECT AVG(price) as avg_price, COUNT(*) as offer_count
-				    FROM product_prices
-				    WHERE product_id = ?
-				""";
+	/**
+	 * Продукты, ожидающие асинхронного пересчета агрегатов; -1, если пересчет отключен.
+	 */
+	public int getStatisticsBacklog() {
+		return aggregateRefresher != null ? aggregateRefresher.getDirtyCount() : -1;
+	}
+	
+	public double getUnchangedCount() {
+		return unchangedCounter.count();
+	}
+	
+	/**
+	 * Вызывается после commit записи в обход {@link #updatePrices}: последние цены процесса больше не достоверны.
+	 */
+	void pricesReplaced() {
+		if(lastSeenPrices != null) {
+			lastSeenPrices.clear();
+		}
+	}
+	
+	public boolean isHistoryEnabled() {
+		return historyWriter != null;
+	}
+	
+	/**
+	 * Секции price_history на текущий и следующий месяц — для записи истории в обход очереди PriceHistoryWriter.
+	 */
+	void ensureHistoryPartitions() {
+		if(historyPartitions != null) {
+			historyPartitions.ensureCurrent();
+		}
+	}
+	
+	/**
+	 * Статистика цен продукта за окно [from, to) из price_history; запрос затрагивает только секции окна.
+	 */
+	public PriceHistory getPriceHistory(long productId, Instant from, Instant to) {
+		try {
+			return withReadConnection(conn -> {
+				try(PreparedStatement stmt = conn.prepareStatement(PRICE_HISTORY_SQL)) {
+					stmt.setLong(1, productId);
+					stmt.setObject(2, OffsetDateTime.ofInstant(from, ZoneOffset.UTC));
+					stmt.setObject(3, OffsetDateTime.ofInstant(to, ZoneOffset.UTC));
+					
+					List<PriceHistory.Point> points = new ArrayList<>();
+					double sum = 0;
+					long samples = 0;
+					Double min = null;
+					Double max = null;
+					try(ResultSet rs = stmt.executeQuery()) {
+						while(rs.next()) {
+							PriceHistory.Point point = new PriceHistory.Point(rs.getString(1), rs.getDouble(2),
+									rs.getDouble(3), rs.getDouble(4), rs.getLong(6));
+							points.add(point);
+							sum += rs.getDouble(5);
+							samples += point.getSamples();
+							min = min == null ? point.getMinPrice() : Math.min(min, point.getMinPrice());
+							max = max == null ? point.getMaxPrice() : Math.max(max, point.getMaxPrice());
+						}
+					}
+					return new PriceHistory(productId, from.toString(), to.toString(),
+							samples > 0 ? sum / samples : null, min, max, samples, points);
+				}
+			});
+		} catch(SQLException e) {
+			logger.error("Failed to get price history for product {}", productId, e);
+			throw new RuntimeException("Failed to get price history", e);
+		}
+	}
+	
+	public void addAveragePriceListener(AveragePriceListener listener) {
+		averagePriceListeners.add(listener);
+	}
+	
+	/**
+	 * Вызывается после commit любого пути записи: обновляет кэш и уведомляет подписчиков.
+	 */
+	void averagePricesCommitted(List<AveragePrice> averagePrices) {
+		if(averagePrices.isEmpty()) {
+			return;
+		}
+		List<Long> productIds = new ArrayList<>(averagePrices.size());
+		for(AveragePrice averagePrice : averagePrices) {
+			averagePriceCache.put(averagePrice.getProductId(), averagePrice.getAveragePrice(),
+					averagePrice.getOfferCount());
+			productIds.add(averagePrice.getProductId());
+		}
+		if(priceIndex != null) {
+			priceIndex.putAll(averagePrices);
+		}
+		if(aggregateRefresher != null) {
+			aggregateRefresher.markDirty(productIds);
+		}
+		notifyListeners(averagePrices);
+	}
+	
+	private void notifyListeners(List<AveragePrice> averagePrices) {
+		for(AveragePriceListener listener : averagePriceListeners) {
+			try {
+				listener.onAveragePricesChanged(averagePrices);
+			} catch(RuntimeException e) {
+				logger.error("Average price listener failed", e);
+			}
+		}
+	}
+	
+	private void statisticsRefreshed(List<AveragePrice> refreshed) {
+		for(AveragePrice averagePrice : refreshed) {
+			averagePriceCache.putStatistics(averagePrice.getProductId(), averagePrice.getMinPrice(),
+					averagePrice.getMaxPrice(), averagePrice.getMedianPrice(), averagePrice.getP90Price());
+		}
+		if(priceIndex != null) {
+			priceIndex.putStatistics(refreshed);
+		}
+	}
+	
+	/**
+	 * Результат асинхронного пересчета средних: для кэша и подписчиков это такая же зафиксированная запись.
+	 */
+	private void averagesRefreshed(List<AveragePrice> refreshed) {
+		for(AveragePrice averagePrice : refreshed) {
+			averagePriceCache.put(averagePrice.getProductId(), averagePrice.getAveragePrice(),
+					averagePrice.getOfferCount());
+		}
+		if(priceIndex != null) {
+			priceIndex.putAll(refreshed);
+		}
+		statisticsRefreshed(refreshed);
+		notifyListeners(refreshed);
+	}
+	
+	/**
+	 * @return число строк product_prices, которые реально изменились
+	 */
+	private int upsertChunk(Connection conn, PreparedStatement stmt, List<PriceUpdate> chunk, Integer[] manufacturerIds,
+							List<AveragePrice> averagePrices, Set<Long> changedProductIds) throws SQLException {
+		Long[] productIds = new Long[chunk.size()];
+		Double[] prices = new Double[chunk.size()];
+		for(int i = 0; i < chunk.size(); i++) {
+			PriceUpdate priceUpdate = chunk.get(i);
+			productIds[i] = priceUpdate.getProductId();
+			prices[i] = priceUpdate.getPrice();
+		}
 		
-		try(PreparedStatement stmt = conn.prepareStatement(avgSql)) {
-			stmt.setLong(1, productId);
-			ResultSet rs = stmt.executeQuery();
-			
-			if(rs.next()) {
-				Double avgPrice = rs.getDouble("avg_price");
-				Integer offerCount = rs.getInt("offer_count");
-				
-				String upsertAvgSql = """
-						    INSERT INTO average_prices (product_id, average_price, offer_count, updated_at)
-						    VALUES (?, ?, ?, CURRENT_TIMESTAMP)
-						    ON CONFLICT (product_id)
-						    DO UPDATE SET
-						        average_price = EXCLUDED.average_price,
-						        offer_count = EXCLUDED.offer_count,
-						        updated_at = CURRENT_TIMESTAMP
-						""";
-				
-				try(PreparedStatement avgStmt = conn.prepareStatement(upsertAvgSql)) {
-					avgStmt.setLong(1, productId);
-					avgStmt.setDouble(2, avgPrice);
-					avgStmt.setInt(3, offerCount);
-					avgStmt.executeUpdate();
+		Array productIdArray = conn.createArrayOf("bigint", productIds);
+		Array manufacturerArray = conn.createArrayOf("integer", manufacturerIds);
+		Array priceArray = conn.createArrayOf("float8", prices);
+		try {
+			stmt.setArray(1, productIdArray);
+			stmt.setArray(2, manufacturerArray);
+			stmt.setArray(3, priceArray);
+			Timer.Sample sample = Timer.start();
+			int changed = 0;
+			try(ResultSet rs = stmt.executeQuery()) {
+				sample.stop(upsertTimer);
+				while(rs.next()) {
+					if(asyncAverages) {
+						// по строке на изменившееся предложение
+						changedProductIds.add(rs.getLong("product_id"));
+						changed++;
+					} else {
+						averagePrices.add(new AveragePrice(
+								rs.getLong("product_id"),
+								rs.getDouble("average_price"),
+								rs.getInt("offer_count")
+						));
+						changed = rs.getInt("changed_rows");
+					}
 				}
 			}
+			return changed;
+		} finally {
+			productIdArray.free();
+			manufacturerArray.free();
+			priceArray.free();
 		}
 	}
 	
 	public AveragePrice getAveragePrice(Long productId) {
-		try(Connection conn = dataSource.getConnection();
-			PreparedStatement stmt = conn.prepareStatement(
-					"SELECT product_id, average_price, offer_count FROM average_prices WHERE product_id = ?")) {
-			
-			stmt.setLong(1, productId);
-			ResultSet rs = stmt.executeQuery();
-			
-			if(rs.next()) {
-				return new AveragePrice(
-						rs.getLong("product_id"),
-						rs.getDouble("average_price"),
-						rs.getInt("offer_count")
-				);
+		AveragePrice cached = averagePriceCache.get(productId);
+		if(cached != null) {
+			return cached;
+		}
+		
+		AveragePrice averagePrice = loadAveragePrice(productId);
+		if(averagePrice != null) {
+			averagePriceCache.putIfAbsent(averagePrice);
+		}
+		return averagePrice;
+	}
+	
+	/**
+	 * Средние цены набора продуктов: найденные в кэше берутся из него, остальные читаются одним запросом
+	 * {@code WHERE product_id = ANY(?)}. Продукты без предложений в результат не попадают; порядок — как в запросе.
+	 */
+	public Map<Long, AveragePrice> getAveragePrices(Collection<Long> productIds) {
+		Map<Long, AveragePrice> result = new LinkedHashMap<>();
+		List<Long> missing = new ArrayList<>();
+		for(Long productId : productIds) {
+			if(result.containsKey(productId)) {
+				continue;
+			}
+			AveragePrice cached = averagePriceCache.get(productId);
+			result.put(productId, cached);
+			if(cached == null) {
+				missing.add(productId);
+			}
+		}
+		
+		if(!missing.isEmpty()) {
+			for(AveragePrice averagePrice : loadAveragePrices(missing)) {
+				result.put(averagePrice.getProductId(), averagePrice);
+				averagePriceCache.putIfAbsent(averagePrice);
 			}
-			return null;
+		}
+		result.values().removeIf(Objects::isNull);
+		return result;
+	}
+	
+	private List<AveragePrice> loadAveragePrices(List<Long> productIds) {
+		try {
+			return withReadConnection(conn -> {
+				Array productIdArray = conn.createArrayOf("bigint", productIds.toArray());
+				try(PreparedStatement stmt = conn.prepareStatement(
+						"SELECT " + AVERAGE_PRICE_COLUMNS + " FROM average_prices WHERE product_id = ANY(?)")) {
+					
+					stmt.setArray(1, productIdArray);
+					List<AveragePrice> prices = new ArrayList<>(productIds.size());
+					try(ResultSet rs = stmt.executeQuery()) {
+						while(rs.next()) {
+							prices.add(readAveragePrice(rs));
+						}
+					}
+					return prices;
+				} finally {
+					productIdArray.free();
+				}
+			});
+		} catch(SQLException e) {
+			logger.error("Failed to get average prices for {} products", productIds.size(), e);
+			throw new RuntimeException("Failed to get average prices", e);
+		}
+	}
+	
+	private AveragePrice loadAveragePrice(Long productId) {
+		try {
+			return withReadConnection(conn -> {
+				try(PreparedStatement stmt = conn.prepareStatement(
+						"SELECT " + AVERAGE_PRICE_COLUMNS + " FROM average_prices WHERE product_id = ?")) {
+					
+					stmt.setLong(1, productId);
+					ResultSet rs = stmt.executeQuery();
+					
+					if(rs.next()) {
+						return readAveragePrice(rs);
+					}
+					return null;
+				}
+			});
 		} catch(SQLException e) {
 			logger.error("Failed to get average price for product {}", productId, e);
 			throw new RuntimeException("Failed to get average price", e);
@@ -165,29 +752,136 @@ public class DatabaseService {
 	}
 	
 	public List<AveragePrice> getAllAveragePrices() {
-		try(Connection conn = dataSource.getConnection();
-			PreparedStatement stmt = conn.prepareStatement(
-					"SELECT product_id, average_price, offer_count FROM average_prices ORDER BY product_id");
-			ResultSet rs = stmt.executeQuery()) {
-			
-			List<AveragePrice> prices = new ArrayList<>();
-			while(rs.next()) {
-				prices.add(new AveragePrice(
-						rs.getLong("product_id"),
-						rs.getDouble("average_price"),
-						rs.getInt("offer_count")
-				));
-			}
-			return prices;
+		try {
+			return withReadConnection(conn -> {
+				try(PreparedStatement stmt = conn.prepareStatement(
+						"SELECT " + AVERAGE_PRICE_COLUMNS + " FROM average_prices ORDER BY product_id");
+					ResultSet rs = stmt.executeQuery()) {
+					
+					List<AveragePrice> prices = new ArrayList<>();
+					while(rs.next()) {
+						prices.add(readAveragePrice(rs));
+					}
+					return prices;
+				}
+			});
 		} catch(SQLException e) {
 			logger.error("Failed to get all average prices", e);
 			throw new RuntimeException("Failed to get average prices", e);
 		}
 	}
 	
+	/**
+	 * Статистика по производителям появляется после первого асинхронного пересчета, до него поля равны null.
+	 */
+	private AveragePrice readAveragePrice(ResultSet rs) throws SQLException {
+		AveragePrice averagePrice = new AveragePrice(
+				rs.getLong("product_id"),
+				rs.getDouble("average_price"),
+				rs.getInt("offer_count")
+		);
+		if(rs.getObject("min_price") != null) {
+			averagePrice.setMinPrice(rs.getDouble("min_price"));
+			averagePrice.setMaxPrice(rs.getDouble("max_price"));
+			averagePrice.setMedianPrice(rs.getDouble("median_price"));
+			averagePrice.setP90Price(rs.getDouble("p90_price"));
+		}
+		return averagePrice;
+	}
+	
+	/**
+	 * Выполняет чтение на реплике, если она подключена и не отстает; при ошибке реплики повторяет на основном сервере.
+	 */
+	private <T> T withReadConnection(ConnectionCallback<T> callback) throws SQLException {
+		DataSource source = readSource();
+		if(source != dataSource) {
+			try(Connection conn = source.getConnection()) {
+				return callback.apply(conn);
+			} catch(SQLException e) {
+				replicaRouter.reportReplicaFailure(e);
+			}
+		}
+		try(Connection conn = dataSource.getConnection()) {
+			return callback.apply(conn);
+		}
+	}
+	
+	private static double getDoubleOrNaN(ResultSet rs, int column) throws SQLException {
+		double value = rs.getDouble(column);
+		return rs.wasNull() ? Double.NaN : value;
+	}
+	
+	private DataSource readSource() {
+		return replicaRouter != null ? replicaRouter.readSource() : dataSource;
+	}
+	
+	/**
+	 * Отдает средние цены по порядку product_id, не материализуя их: строки читаются серверным курсором
+	 * порциями по {@code db.stream.fetch-size}. {@code afterProductId}/{@code limit} задают keyset-страницу,
+	 * {@code null} — без ограничения. Статистика, которая еще не пересчитана, передается как {@code NaN}.
+	 * Возвращает число переданных строк.
+	 */
+	public int streamAveragePrices(Long afterProductId, Integer limit, AveragePriceHandler handler) throws IOException {
+		// часть строк может уже уйти клиенту, поэтому без повтора на основном сервере — переключится следующий запрос
+		DataSource source = readSource();
+		try(Connection conn = source.getConnection()) {
+			// pgjdbc использует курсор с fetchSize только вне режима autocommit
+			conn.setAutoCommit(false);
+			try(PreparedStatement stmt = conn.prepareStatement(STREAM_AVERAGES_SQL)) {
+				stmt.setFetchSize(streamFetchSize);
+				stmt.setLong(1, afterProductId != null ? afterProductId : Long.MIN_VALUE);
+				if(limit != null) {
+					stmt.setLong(2, limit);
+				} else {
+					stmt.setNull(2, Types.BIGINT);
+				}
+				
+				int count = 0;
+				try(ResultSet rs = stmt.executeQuery()) {
+					while(rs.next()) {
+						handler.accept(rs.getLong(1), rs.getDouble(2), rs.getInt(3), getDoubleOrNaN(rs, 4),
+								getDoubleOrNaN(rs, 5), getDoubleOrNaN(rs, 6), getDoubleOrNaN(rs, 7));
+						count++;
+					}
+				}
+				conn.commit();
+				return count;
+			}
+		} catch(SQLException e) {
+			if(source != dataSource) {
+				replicaRouter.reportReplicaFailure(e);
+			}
+			logger.error("Failed to stream average prices", e);
+			throw new RuntimeException("Failed to get average prices", e);
+		}
+	}
+	
 	public void close() {
+		if(aggregateRefresher != null) {
+			aggregateRefresher.close();
+		}
+		if(historyWriter != null) {
+			historyWriter.close();
+		}
+		if(replicaRouter != null) {
+			replicaRouter.close();
+		}
+		if(readDataSource instanceof HikariDataSource) {
+			((HikariDataSource) readDataSource).close();
+		}
 		if(dataSource instanceof HikariDataSource) {
 			((HikariDataSource) dataSource).close();
 		}
 	}
-}
\ No newline at end of file
+	
+	@FunctionalInterface
+	private interface ConnectionCallback<T> {
+		T apply(Connection conn) throws SQLException;
+	}
+	
+	@FunctionalInterface
+	public interface AveragePriceHandler {
+		void accept(long productId, double averagePrice, int offerCount, double minPrice, double maxPrice,
+					double medianPrice, double p90Price) throws IOException;
+	}
+}
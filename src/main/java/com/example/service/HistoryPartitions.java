@@ -0,0 +1,57 @@
+package com.example.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+
+/**
+ * Месячные секции price_history, общие для PriceHistoryWriter и BulkLoadService. Секция создается до того,
+ * как в ее диапазон попадут строки: строка, легшая в default-секцию, делает создание секции на этот месяц
+ * невозможным. Создание идет отдельным коротким соединением в autocommit, не внутри транзакции записи.
+ */
+class HistoryPartitions {
+	private static final Logger logger = LoggerFactory.getLogger(HistoryPartitions.class);
+	
+	private static final String CREATE_PARTITION_SQL = """
+			    CREATE TABLE IF NOT EXISTS price_history_%d_%02d PARTITION OF price_history
+			    FOR VALUES FROM ('%s') TO ('%s')
+			""";
+	
+	private final DataSource dataSource;
+	private YearMonth partitionedThrough;
+	
+	HistoryPartitions(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+	
+	/**
+	 * Секции с {@code month} по следующий месяц включительно; следующий создается заранее, чтобы строки
+	 * не копились в default-секции. Ошибка не фатальна: строки попадут в default-секцию.
+	 */
+	synchronized void ensure(YearMonth month) {
+		if(partitionedThrough != null && !month.plusMonths(1).isAfter(partitionedThrough)) {
+			return;
+		}
+		try(Connection conn = dataSource.getConnection();
+			Statement stmt = conn.createStatement()) {
+			for(YearMonth m = month; !m.isAfter(month.plusMonths(1)); m = m.plusMonths(1)) {
+				stmt.execute(String.format(CREATE_PARTITION_SQL, m.getYear(), m.getMonthValue(),
+						m.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant(),
+						m.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant()));
+			}
+			partitionedThrough = month.plusMonths(1);
+		} catch(SQLException e) {
+			logger.warn("Failed to create price_history partitions for {}", month, e);
+		}
+	}
+	
+	void ensureCurrent() {
+		ensure(YearMonth.now(ZoneOffset.UTC));
+	}
+}
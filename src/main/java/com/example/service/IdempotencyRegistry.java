@@ -0,0 +1,99 @@
+package com.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ограниченный по размеру и времени реестр ключей идемпотентности ({@code Idempotency-Key}) с сохраненными ответами.
+ * Ключ резервируется до начала обработки, чтобы одновременный повтор не прошел параллельно; окончательный ответ
+ * сохраняется на {@code ttlMillis}, повтор получает его без повторной записи. Реестр живет в памяти процесса.
+ */
+public class IdempotencyRegistry {
+	
+	/**
+	 * Сохраненный ответ в той кодировке, в которой он был отправлен; {@link #IN_PROGRESS} — запрос с этим ключом
+	 * еще обрабатывается.
+	 */
+	public record StoredResponse(int status, String contentType, byte[] body) {
+	}
+	
+	public static final StoredResponse IN_PROGRESS = new StoredResponse(0, null, null);
+	
+	private final int maxKeys;
+	private final long ttlNanos;
+	private final Counter replayCounter;
+	// порядок вставки совпадает с порядком истечения: все записи живут одинаковое время
+	private final LinkedHashMap<String, Entry> entries;
+	
+	public IdempotencyRegistry(int maxKeys, long ttlMillis) {
+		this.maxKeys = maxKeys;
+		this.ttlNanos = ttlMillis * 1_000_000L;
+		this.entries = new LinkedHashMap<>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > IdempotencyRegistry.this.maxKeys;
+			}
+		};
+		this.replayCounter = Counter.builder("price.ingest.idempotent.replays")
+									  .description("Requests answered from the idempotency registry instead of being processed")
+									  .register(Metrics.globalRegistry);
+		Gauge.builder("price.ingest.idempotent.keys", this, IdempotencyRegistry::size)
+				.register(Metrics.globalRegistry);
+	}
+	
+	/**
+	 * Резервирует ключ и возвращает {@code null}, если он новый; иначе — сохраненный ответ или {@link #IN_PROGRESS}.
+	 */
+	public synchronized StoredResponse reserve(String key) {
+		long now = System.nanoTime();
+		expire(now);
+		Entry existing = entries.get(key);
+		if(existing != null) {
+			if(existing.response != IN_PROGRESS) {
+				replayCounter.increment();
+			}
+			return existing.response;
+		}
+		entries.put(key, new Entry(IN_PROGRESS, now + ttlNanos));
+		return null;
+	}
+	
+	public synchronized void complete(String key, int status, String contentType, byte[] body) {
+		// время жизни отсчитывается от ответа, а не от резервирования
+		entries.remove(key);
+		entries.put(key, new Entry(new StoredResponse(status, contentType, body), System.nanoTime() + ttlNanos));
+	}
+	
+	/**
+	 * Снимает резервирование, если ответ не окончательный (перегрузка, ошибка журнала, таймаут): повтор обработается
+	 * заново. Уже сохраненный ответ не трогает — обработка могла завершиться раньше, чем ответ дошел до клиента.
+	 */
+	public synchronized void release(String key) {
+		Entry existing = entries.get(key);
+		if(existing != null && existing.response == IN_PROGRESS) {
+			entries.remove(key);
+		}
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	private void expire(long now) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(iterator.hasNext()) {
+			if(now - iterator.next().expiresAt <= 0) {
+				return;
+			}
+			iterator.remove();
+		}
+	}
+	
+	private record Entry(StoredResponse response, long expiresAt) {
+	}
+}
@@ -0,0 +1,436 @@
+package com.example.service;
+
+import com.example.model.PriceUpdate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал упреждающей записи для принятых обновлений цен. Записи дописываются в сегменты
+ * {@code journal-<n>.log}; один поток-писатель собирает все ожидающие записи, пишет их одним gather-write
+ * и делает один fsync на группу (group commit). Сегмент удаляется, когда он закрыт для записи
+ * и все его пакеты обработаны: применены к базе или, после ошибки применения, перенесены в {@code quarantine.log}.
+ * При старте необработанные записи проигрываются заново;
+ * upsert идемпотентен, поэтому повторное применение безопасно.
+ * <p>
+ * Формат записи: {@code [int длина][int crc32][int n][n × (long product_id, UTF manufacturer_name, double price)]}.
+ */
+public class IngestionJournal implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(IngestionJournal.class);
+	
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int HEADER_SIZE = 8;
+	private static final PendingRecord STOP = new PendingRecord(new byte[0], new CompletableFuture<>());
+	private static final String QUARANTINE_FILE = "quarantine.log";
+	
+	@FunctionalInterface
+	interface ChannelOpener {
+		FileChannel open(Path path) throws IOException;
+	}
+	
+	private final Path directory;
+	private final long segmentSizeBytes;
+	private final ChannelOpener channelOpener;
+	private final Counter quarantinedCounter;
+	private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+	private final Thread writerThread;
+	private final List<Path> recoveredSegments;
+	
+	private Segment activeSegment;
+	// после неудачной записи в сегменте могут остаться оборванные байты: следующая группа идет в новый сегмент
+	private boolean rollBeforeWrite;
+	private volatile boolean closed;
+	
+	public IngestionJournal(Path directory, long segmentSizeBytes) {
+		this(directory, segmentSizeBytes, path -> FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+	}
+	
+	IngestionJournal(Path directory, long segmentSizeBytes, ChannelOpener channelOpener) {
+		this.directory = directory;
+		this.segmentSizeBytes = segmentSizeBytes;
+		this.channelOpener = channelOpener;
+		this.quarantinedCounter = Counter.builder("ingest.journal.quarantined")
+										  .description("Journal records that failed to apply or replay and were moved to the quarantine file")
+										  .register(Metrics.globalRegistry);
+		try {
+			Files.createDirectories(directory);
+			this.recoveredSegments = listSegments();
+			long nextNumber = recoveredSegments.isEmpty() ? 1 : segmentNumber(recoveredSegments.get(recoveredSegments.size() - 1)) + 1;
+			this.activeSegment = openSegment(nextNumber);
+		} catch(IOException e) {
+			throw new UncheckedIOException("Failed to open ingestion journal in " + directory, e);
+		}
+		
+		this.writerThread = new Thread(this :: writeLoop, "ingest-journal-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+	
+	/**
+	 * Остались сегменты от предыдущего запуска, которые еще не проиграны {@link #recover(Function)}.
+	 */
+	public boolean hasRecoveredSegments() {
+		return !recoveredSegments.isEmpty();
+	}
+	
+	/**
+	 * Проигрывает записи сегментов, оставшихся от предыдущего запуска, в порядке записи и удаляет
+	 * сегменты, когда все проигранные пакеты обработаны. Оборванная последняя запись пропускается.
+	 * Запись, которую не удалось применить, не останавливает восстановление: она дописывается
+	 * в {@code quarantine.log} того же формата для ручного разбора, иначе каждый следующий старт падал бы на ней же.
+	 */
+	public int recover(Function<List<PriceUpdate>, CompletableFuture<Void>> replay) {
+		List<CompletableFuture<Void>> applied = new ArrayList<>();
+		for(Path segment : recoveredSegments) {
+			try(InputStream in = new BufferedInputStream(Files.newInputStream(segment))) {
+				List<PriceUpdate> updates;
+				while((updates = readRecord(in, segment)) != null) {
+					applied.add(replayRecord(replay, updates, segment));
+				}
+			} catch(IOException e) {
+				throw new UncheckedIOException("Failed to read journal segment " + segment, e);
+			}
+		}
+		
+		CompletableFuture.allOf(applied.toArray(new CompletableFuture[0])).join();
+		
+		for(Path segment : recoveredSegments) {
+			try {
+				Files.deleteIfExists(segment);
+			} catch(IOException e) {
+				logger.warn("Failed to delete replayed journal segment {}", segment, e);
+			}
+		}
+		if(!applied.isEmpty()) {
+			logger.info("Replayed {} journal records from {} segments", applied.size(), recoveredSegments.size());
+		}
+		recoveredSegments.clear();
+		return applied.size();
+	}
+	
+	private CompletableFuture<Void> replayRecord(Function<List<PriceUpdate>, CompletableFuture<Void>> replay,
+												 List<PriceUpdate> updates, Path segment) {
+		CompletableFuture<Void> future;
+		try {
+			future = replay.apply(updates);
+		} catch(RuntimeException e) {
+			future = CompletableFuture.failedFuture(e);
+		}
+		return future.handle((result, throwable) -> {
+			if(throwable != null) {
+				quarantine(updates, segment, throwable);
+			}
+			return null;
+		});
+	}
+	
+	private synchronized void quarantine(List<PriceUpdate> updates, Path segment, Throwable cause) {
+		quarantinedCounter.increment();
+		Path quarantine = directory.resolve(QUARANTINE_FILE);
+		logger.error("Failed to apply a journal record of {} updates from {}, moving it to {}",
+				updates.size(), segment, quarantine, cause);
+		try(FileChannel channel = FileChannel.open(quarantine,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer record = ByteBuffer.wrap(encode(updates));
+			while(record.hasRemaining()) {
+				channel.write(record);
+			}
+			channel.force(false);
+		} catch(IOException e) {
+			logger.error("Failed to write quarantined journal record, {} updates are lost", updates.size(), e);
+		}
+	}
+	
+	/**
+	 * Дописывает пакет и возвращает управление только после fsync.
+	 */
+	public Entry append(List<PriceUpdate> priceUpdates) {
+		try {
+			return appendAsync(priceUpdates).get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for journal write", e);
+		} catch(ExecutionException e) {
+			throw new UncheckedIOException("Failed to write ingestion journal",
+					e.getCause() instanceof IOException io ? io : new IOException(e.getCause()));
+		}
+	}
+	
+	/**
+	 * То же, что {@link #append}, но без ожидания: future завершается потоком записи после fsync.
+	 */
+	public CompletableFuture<Entry> appendAsync(List<PriceUpdate> priceUpdates) {
+		if(closed) {
+			throw new IllegalStateException("Ingestion journal is closed");
+		}
+		
+		PendingRecord record = new PendingRecord(encode(priceUpdates), new CompletableFuture<>());
+		pending.add(record);
+		return record.written();
+	}
+	
+	public void markApplied(Entry entry) {
+		entry.segment.release();
+	}
+	
+	/**
+	 * Пакет не удалось применить: он дописывается в {@code quarantine.log} до того, как сегмент может быть удален,
+	 * так что принятые обновления не теряются и после ошибки базы.
+	 */
+	public void markFailed(Entry entry, List<PriceUpdate> priceUpdates, Throwable cause) {
+		quarantine(priceUpdates, entry.segment.path, cause);
+		entry.segment.release();
+	}
+	
+	private void writeLoop() {
+		List<PendingRecord> group = new ArrayList<>();
+		boolean stopping = false;
+		while(!stopping) {
+			try {
+				group.add(pending.take());
+			} catch(InterruptedException e) {
+				continue;
+			}
+			pending.drainTo(group);
+			stopping = group.remove(STOP);
+			writeGroup(group);
+			group.clear();
+		}
+	}
+	
+	private void writeGroup(List<PendingRecord> group) {
+		if(group.isEmpty()) {
+			return;
+		}
+		try {
+			if(rollBeforeWrite || activeSegment.size >= segmentSizeBytes) {
+				rollSegment();
+				rollBeforeWrite = false;
+			}
+			
+			ByteBuffer[] buffers = new ByteBuffer[group.size()];
+			long bytes = 0;
+			for(int i = 0; i < group.size(); i++) {
+				buffers[i] = ByteBuffer.wrap(group.get(i).bytes());
+				bytes += buffers[i].remaining();
+			}
+			long written = 0;
+			while(written < bytes) {
+				written += activeSegment.channel.write(buffers);
+			}
+			activeSegment.channel.force(false);
+			activeSegment.size += bytes;
+			
+			Segment segment = activeSegment;
+			for(PendingRecord record : group) {
+				segment.retain();
+				record.written().complete(new Entry(segment));
+			}
+		} catch(IOException e) {
+			logger.error("Failed to write {} records to ingestion journal", group.size(), e);
+			group.forEach(record -> record.written().completeExceptionally(e));
+			discardTornWrite();
+		}
+	}
+	
+	/**
+	 * Отрезает байты неудавшейся группы: чтение при восстановлении останавливается на первой битой записи,
+	 * и подтвержденные записи после нее были бы потеряны. Если отрезать не удалось, следующая группа
+	 * пишется в новый сегмент.
+	 */
+	private void discardTornWrite() {
+		try {
+			activeSegment.channel.truncate(activeSegment.size);
+			activeSegment.channel.force(false);
+		} catch(IOException e) {
+			logger.warn("Failed to truncate journal segment {}, the next write goes to a new segment", activeSegment.path, e);
+			rollBeforeWrite = true;
+		}
+	}
+	
+	private void rollSegment() throws IOException {
+		Segment sealed = activeSegment;
+		activeSegment = openSegment(sealed.number + 1);
+		sealed.seal();
+	}
+	
+	private Segment openSegment(long number) throws IOException {
+		Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+		return new Segment(number, path, channelOpener.open(path));
+	}
+	
+	private List<Path> listSegments() throws IOException {
+		try(Stream<Path> files = Files.list(directory)) {
+			return new ArrayList<>(files
+					.filter(path -> {
+						String name = path.getFileName().toString();
+						return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+					})
+					.sorted()
+					.toList());
+		}
+	}
+	
+	private static long segmentNumber(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+	
+	private static byte[] encode(List<PriceUpdate> priceUpdates) {
+		try {
+			ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(16 + priceUpdates.size() * 32);
+			DataOutputStream payload = new DataOutputStream(payloadBytes);
+			payload.writeInt(priceUpdates.size());
+			for(PriceUpdate priceUpdate : priceUpdates) {
+				payload.writeLong(priceUpdate.getProductId());
+				payload.writeUTF(priceUpdate.getManufacturerName());
+				payload.writeDouble(priceUpdate.getPrice());
+			}
+			byte[] body = payloadBytes.toByteArray();
+			
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			
+			ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.length);
+			record.putInt(body.length);
+			record.putInt((int) crc.getValue());
+			record.put(body);
+			return record.array();
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	private static List<PriceUpdate> readRecord(InputStream in, Path segment) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		byte[] body;
+		int checksum;
+		try {
+			int length = data.readInt();
+			checksum = data.readInt();
+			if(length < 0) {
+				logger.warn("Corrupted record length in journal segment {}, skipping the rest", segment);
+				return null;
+			}
+			body = new byte[length];
+			data.readFully(body);
+		} catch(EOFException e) {
+			return null;
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		if((int) crc.getValue() != checksum) {
+			logger.warn("Checksum mismatch in journal segment {}, skipping the rest", segment);
+			return null;
+		}
+		
+		DataInputStream payload = new DataInputStream(new ByteArrayInputStream(body));
+		int count = payload.readInt();
+		List<PriceUpdate> updates = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			updates.add(new PriceUpdate(payload.readLong(), payload.readUTF(), payload.readDouble()));
+		}
+		return updates;
+	}
+	
+	@Override
+	public void close() {
+		closed = true;
+		// писателя не прерываем: прерывание FileChannel закрывает канал посреди записи
+		pending.add(STOP);
+		try {
+			writerThread.join();
+			activeSegment.seal();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		PendingRecord late;
+		while((late = pending.poll()) != null) {
+			late.written().completeExceptionally(new IOException("Ingestion journal is closed"));
+		}
+	}
+	
+	private record PendingRecord(byte[] bytes, CompletableFuture<Entry> written) {
+	}
+	
+	public static final class Entry {
+		private final Segment segment;
+		
+		private Entry(Segment segment) {
+			this.segment = segment;
+		}
+	}
+	
+	static final class Segment {
+		private final long number;
+		private final Path path;
+		private final FileChannel channel;
+		private long size;
+		private int outstanding;
+		private boolean sealed;
+		
+		Segment(long number, Path path, FileChannel channel) {
+			this.number = number;
+			this.path = path;
+			this.channel = channel;
+		}
+		
+		synchronized void retain() {
+			outstanding++;
+		}
+		
+		synchronized void release() {
+			outstanding--;
+			deleteIfDone();
+		}
+		
+		synchronized void seal() {
+			sealed = true;
+			try {
+				channel.close();
+			} catch(IOException e) {
+				logger.warn("Failed to close journal segment {}", path, e);
+			}
+			deleteIfDone();
+		}
+		
+		private void deleteIfDone() {
+			if(sealed && outstanding == 0) {
+				try {
+					Files.deleteIfExists(path);
+				} catch(IOException e) {
+					logger.warn("Failed to delete applied journal segment {}", path, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.example.service;
+
+public class IngestionRejectedException extends RuntimeException {
+	private final int retryAfterSeconds;
+	
+	public IngestionRejectedException(String message, int retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+	
+	public int getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
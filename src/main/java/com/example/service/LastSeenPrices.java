@@ -0,0 +1,90 @@
+package com.example.service;
+
+import com.example.model.PriceUpdate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Последние записанные этим процессом цены предложений: сегментированный LRU. Позволяет отбросить
+ * неизменные обновления до транзакции. Верен, только пока product_prices меняет один экземпляр сервиса,
+ * поэтому по умолчанию выключен; массовая загрузка очищает его целиком.
+ */
+class LastSeenPrices {
+	private static final int SEGMENT_COUNT = 16;
+	
+	private record OfferKey(long productId, String manufacturerName) {
+	}
+	
+	private final Segment[] segments;
+	
+	LastSeenPrices(int maxSize) {
+		this.segments = new Segment[SEGMENT_COUNT];
+		int segmentCapacity = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		for(int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+	
+	/**
+	 * Обновления, цена которых отличается от последней записанной или неизвестна.
+	 */
+	List<PriceUpdate> changed(List<PriceUpdate> priceUpdates) {
+		List<PriceUpdate> changed = new ArrayList<>(priceUpdates.size());
+		for(PriceUpdate priceUpdate : priceUpdates) {
+			OfferKey key = new OfferKey(priceUpdate.getProductId(), priceUpdate.getManufacturerName());
+			Segment segment = segmentFor(key);
+			Double lastPrice;
+			synchronized(segment) {
+				lastPrice = segment.get(key);
+			}
+			// в базе цена хранится с точностью до копейки
+			if(lastPrice == null || Math.round(lastPrice * 100) != Math.round(priceUpdate.getPrice() * 100)) {
+				changed.add(priceUpdate);
+			}
+		}
+		return changed;
+	}
+	
+	/**
+	 * Вызывается после commit.
+	 */
+	void record(List<PriceUpdate> priceUpdates) {
+		for(PriceUpdate priceUpdate : priceUpdates) {
+			OfferKey key = new OfferKey(priceUpdate.getProductId(), priceUpdate.getManufacturerName());
+			Segment segment = segmentFor(key);
+			synchronized(segment) {
+				segment.put(key, priceUpdate.getPrice());
+			}
+		}
+	}
+	
+	void clear() {
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				segment.clear();
+			}
+		}
+	}
+	
+	private Segment segmentFor(OfferKey key) {
+		int hash = key.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+	}
+	
+	private static final class Segment extends LinkedHashMap<OfferKey, Double> {
+		private final int capacity;
+		
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<OfferKey, Double> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.example.service;
+
+import com.example.model.PriceUpdate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словарь производителей: имя → id из таблицы manufacturers. Известные имена разрешаются без блокировок
+ * из {@link ConcurrentHashMap}; новые — одним запросом, который вставляет недостающие имена и читает
+ * существующие. Id не меняются и не удаляются, поэтому кэш не инвалидируется; производителей на порядки
+ * меньше, чем предложений, и кэш не ограничен.
+ */
+class ManufacturerDictionary {
+	
+	/*
+	 * Снимок запроса не видит строк, вставленных параллельно после его начала: если другая транзакция
+	 * добавляет то же имя, ON CONFLICT DO NOTHING дождется ее и пропустит строку, а SELECT ее не увидит.
+	 * Такие имена запрашиваются повторно следующим запросом, который уже видит зафиксированную строку.
+	 */
+	private static final String RESOLVE_SQL = """
+			    WITH requested AS (
+			        SELECT DISTINCT name FROM unnest(?::varchar[]) AS t(name)
+			    ),
+			    inserted AS (
+			        INSERT INTO manufacturers (name)
+			        SELECT name FROM requested
+			        ORDER BY name
+			        ON CONFLICT (name) DO NOTHING
+			        RETURNING id, name
+			    )
+			    SELECT id, name FROM inserted
+			    UNION ALL
+			    SELECT m.id, m.name FROM manufacturers m JOIN requested USING (name)
+			""";
+	
+	private static final int MAX_ATTEMPTS = 3;
+	
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private final Counter lookupCounter;
+	
+	ManufacturerDictionary() {
+		this.lookupCounter = Counter.builder("db.manufacturers.lookups")
+									  .description("Queries resolving manufacturer names missing from the dictionary cache")
+									  .register(Metrics.globalRegistry);
+		Gauge.builder("db.manufacturers.cached", ids, Map::size)
+				.register(Metrics.globalRegistry);
+	}
+	
+	/**
+	 * Id производителей обновлений в том же порядке. Соединение должно быть в режиме autocommit: вставленное
+	 * имя попадает в кэш, только когда его строка зафиксирована, и не держит блокировку до конца чужой транзакции.
+	 */
+	Integer[] resolve(Connection conn, List<PriceUpdate> priceUpdates) throws SQLException {
+		Integer[] result = new Integer[priceUpdates.size()];
+		Set<String> missing = null;
+		for(int i = 0; i < result.length; i++) {
+			String name = priceUpdates.get(i).getManufacturerName();
+			result[i] = ids.get(name);
+			if(result[i] == null) {
+				if(missing == null) {
+					missing = new LinkedHashSet<>();
+				}
+				missing.add(name);
+			}
+		}
+		if(missing == null) {
+			return result;
+		}
+		
+		load(conn, missing);
+		for(int i = 0; i < result.length; i++) {
+			if(result[i] == null) {
+				result[i] = ids.get(priceUpdates.get(i).getManufacturerName());
+			}
+		}
+		return result;
+	}
+	
+	private void load(Connection conn, Set<String> names) throws SQLException {
+		for(int attempt = 0; attempt < MAX_ATTEMPTS && !names.isEmpty(); attempt++) {
+			lookupCounter.increment();
+			Array nameArray = conn.createArrayOf("varchar", names.toArray(new String[0]));
+			try(PreparedStatement stmt = conn.prepareStatement(RESOLVE_SQL)) {
+				stmt.setArray(1, nameArray);
+				try(ResultSet rs = stmt.executeQuery()) {
+					while(rs.next()) {
+						String name = rs.getString(2);
+						ids.put(name, rs.getInt(1));
+						names.remove(name);
+					}
+				}
+			} finally {
+				nameArray.free();
+			}
+		}
+		if(!names.isEmpty()) {
+			throw new SQLException("Failed to resolve manufacturer ids for " + names);
+		}
+	}
+}
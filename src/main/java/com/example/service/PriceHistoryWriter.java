@@ -0,0 +1,173 @@
+package com.example.service;
+
+import com.example.model.PriceUpdate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Асинхронная запись истории цен: зафиксированные обновления ставятся в ограниченную очередь и пишутся
+ * отдельным потоком пачками до {@code batchSize} строк одним insert'ом через unnest, в своей транзакции.
+ * Транзакция обновления цен историю не ждет; при переполнении очереди строки истории отбрасываются и считаются.
+ * Месячные секции price_history создаются заранее через {@link HistoryPartitions} — на текущий и следующий
+ * месяц — потоком записи перед первой пачкой, а не в конструкторе: старт сервиса не ждет базу.
+ */
+class PriceHistoryWriter implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(PriceHistoryWriter.class);
+	
+	private static final String INSERT_HISTORY_SQL = """
+			    INSERT INTO price_history (product_id, manufacturer_id, price, recorded_at)
+			    SELECT product_id, manufacturer_id, price, to_timestamp(recorded_ms / 1000.0)
+			    FROM unnest(?::bigint[], ?::int[], ?::float8[], ?::bigint[])
+			         AS t(product_id, manufacturer_id, price, recorded_ms)
+			""";
+	
+	private record Entry(PriceUpdate update, long recordedAt) {
+	}
+	
+	private final DataSource dataSource;
+	private final HistoryPartitions partitions;
+	private final ManufacturerDictionary manufacturers;
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final BlockingQueue<Entry> queue;
+	private final Thread writer;
+	private final Counter droppedCounter;
+	private final Timer insertTimer;
+	
+	private volatile boolean running = true;
+	
+	PriceHistoryWriter(DataSource dataSource, HistoryPartitions partitions, ManufacturerDictionary manufacturers,
+					   int queueCapacity, int batchSize, long flushIntervalMillis) {
+		this.dataSource = dataSource;
+		this.partitions = partitions;
+		this.manufacturers = manufacturers;
+		this.batchSize = batchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.queue = new LinkedBlockingQueue<>(queueCapacity);
+		
+		this.droppedCounter = Counter.builder("price.history.dropped")
+									  .description("History rows dropped because the history queue was full or the insert failed")
+									  .baseUnit("rows")
+									  .register(Metrics.globalRegistry);
+		this.insertTimer = Timer.builder("db.history.insert")
+								   .description("Batched insert into price_history")
+								   .register(Metrics.globalRegistry);
+		Gauge.builder("price.history.queue.depth", queue, BlockingQueue::size)
+				.baseUnit("rows")
+				.register(Metrics.globalRegistry);
+		
+		this.writer = new Thread(this :: run, "price-history-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Вызывается после commit обновлений; не блокирует.
+	 */
+	void record(List<PriceUpdate> priceUpdates, long recordedAt) {
+		int dropped = 0;
+		for(PriceUpdate priceUpdate : priceUpdates) {
+			if(!queue.offer(new Entry(priceUpdate, recordedAt))) {
+				dropped++;
+			}
+		}
+		if(dropped > 0) {
+			droppedCounter.increment(dropped);
+			logger.warn("History queue is full, dropped {} history rows", dropped);
+		}
+	}
+	
+	private void run() {
+		List<Entry> batch = new ArrayList<>(batchSize);
+		while(running || !queue.isEmpty()) {
+			try {
+				Entry first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+				if(first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				insert(batch);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+	
+	private void insert(List<Entry> batch) {
+		partitions.ensure(YearMonth.from(Instant.ofEpochMilli(batch.get(batch.size() - 1).recordedAt()).atZone(ZoneOffset.UTC)));
+		
+		Long[] productIds = new Long[batch.size()];
+		List<PriceUpdate> updates = new ArrayList<>(batch.size());
+		Double[] prices = new Double[batch.size()];
+		Long[] recordedAt = new Long[batch.size()];
+		for(int i = 0; i < batch.size(); i++) {
+			Entry entry = batch.get(i);
+			productIds[i] = entry.update().getProductId();
+			updates.add(entry.update());
+			prices[i] = entry.update().getPrice();
+			recordedAt[i] = entry.recordedAt();
+		}
+		
+		try(Connection conn = dataSource.getConnection();
+			PreparedStatement stmt = conn.prepareStatement(INSERT_HISTORY_SQL)) {
+			// имена уже разрешены записью цен, так что обычно это только чтение кэша
+			Integer[] manufacturerIds = manufacturers.resolve(conn, updates);
+			Array productIdArray = conn.createArrayOf("bigint", productIds);
+			Array manufacturerArray = conn.createArrayOf("integer", manufacturerIds);
+			Array priceArray = conn.createArrayOf("float8", prices);
+			Array recordedAtArray = conn.createArrayOf("bigint", recordedAt);
+			try {
+				stmt.setArray(1, productIdArray);
+				stmt.setArray(2, manufacturerArray);
+				stmt.setArray(3, priceArray);
+				stmt.setArray(4, recordedAtArray);
+				Timer.Sample sample = Timer.start();
+				stmt.executeUpdate();
+				sample.stop(insertTimer);
+			} finally {
+				productIdArray.free();
+				manufacturerArray.free();
+				priceArray.free();
+				recordedAtArray.free();
+			}
+		} catch(SQLException e) {
+			droppedCounter.increment(batch.size());
+			logger.error("Failed to write {} history rows", batch.size(), e);
+		}
+	}
+	
+	@Override
+	public void close() {
+		running = false;
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(!queue.isEmpty()) {
+			logger.warn("{} history rows were not written before shutdown", queue.size());
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Полный индекс агрегатов по продуктам в памяти процесса: открытая адресация с линейным пробированием
+ * по ключу {@code long}, значения — в параллельных примитивных массивах (52 байта на слот, без объектов
+ * на запись). Заполняется из average_prices при старте и дальше обновляется путем записи {@link DatabaseService}.
+ * <p>
+ * Чтения не блокируются: {@link StampedLock#tryOptimisticRead()} и повтор под блокировкой чтения, только если
+ * пересеклись с записью. Записей мало по сравнению с чтениями, они идут под одной блокировкой записи.
+ * Хранится средняя, а не сумма: путь записи возвращает округленную average_price, и сумма average × count,
+ * поделенная обратно, дала бы ответ, отличающийся от базы в последних разрядах.
+ */
+public class PriceIndex {
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final int MIN_CAPACITY = 1024;
+	private static final double MAX_LOAD = 0.6;
+	
+	private final StampedLock lock = new StampedLock();
+	private volatile Table table;
+	private volatile boolean ready;
+	
+	public PriceIndex(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while(capacity * MAX_LOAD < expectedSize) {
+			capacity <<= 1;
+		}
+		this.table = new Table(capacity);
+	}
+	
+	/**
+	 * Индекс заполнен из базы: отсутствие продукта в нем означает, что у продукта нет цен.
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+	
+	void markReady() {
+		ready = true;
+	}
+	
+	public AveragePrice get(long productId) {
+		long stamp = lock.tryOptimisticRead();
+		AveragePrice averagePrice = table.read(productId);
+		if(lock.validate(stamp)) {
+			return averagePrice;
+		}
+		stamp = lock.readLock();
+		try {
+			return table.read(productId);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	
+	/**
+	 * Средние цены в порядке запроса; продукты без цен в результат не попадают.
+	 */
+	public Map<Long, AveragePrice> getAll(Collection<Long> productIds) {
+		Map<Long, AveragePrice> averagePrices = new LinkedHashMap<>();
+		for(Long productId : productIds) {
+			AveragePrice averagePrice = get(productId);
+			if(averagePrice != null) {
+				averagePrices.put(productId, averagePrice);
+			}
+		}
+		return averagePrices;
+	}
+	
+	/**
+	 * Зафиксированные средние; статистика продукта сохраняется до следующего пересчета.
+	 */
+	void putAll(List<AveragePrice> averagePrices) {
+		long stamp = lock.writeLock();
+		try {
+			for(AveragePrice averagePrice : averagePrices) {
+				int slot = slotForWrite(averagePrice.getProductId());
+				Table current = table;
+				current.averages[slot] = averagePrice.getAveragePrice();
+				current.counts[slot] = averagePrice.getOfferCount();
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Пересчитанные min/max/медиана/p90; продукты, которых еще нет в индексе, пропускаются — их средняя
+	 * придет записью.
+	 */
+	void putStatistics(List<AveragePrice> averagePrices) {
+		long stamp = lock.writeLock();
+		try {
+			Table current = table;
+			for(AveragePrice averagePrice : averagePrices) {
+				int slot = current.find(averagePrice.getProductId());
+				if(slot >= 0 && averagePrice.getMinPrice() != null) {
+					current.mins[slot] = averagePrice.getMinPrice();
+					current.maxs[slot] = averagePrice.getMaxPrice();
+					current.medians[slot] = orNaN(averagePrice.getMedianPrice());
+					current.p90s[slot] = orNaN(averagePrice.getP90Price());
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+	 * Для заполнения при старте: не перетирает значение, записанное после того, как строка была прочитана.
+	 */
+	void putIfAbsent(long productId, double averagePrice, int offerCount, double minPrice, double maxPrice,
+					 double medianPrice, double p90Price) {
+		long stamp = lock.writeLock();
+		try {
+			if(table.find(productId) >= 0) {
+				return;
+			}
+			int slot = slotForWrite(productId);
+			Table current = table;
+			current.averages[slot] = averagePrice;
+			current.counts[slot] = offerCount;
+			current.mins[slot] = minPrice;
+			current.maxs[slot] = maxPrice;
+			current.medians[slot] = medianPrice;
+			current.p90s[slot] = p90Price;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	public int size() {
+		return table.size;
+	}
+	
+	private static double orNaN(Double value) {
+		return value != null ? value : Double.NaN;
+	}
+	
+	/**
+	 * Слот продукта, при необходимости новый; вызывается под блокировкой записи.
+	 */
+	private int slotForWrite(long productId) {
+		if(productId == EMPTY) {
+			throw new IllegalArgumentException("Unsupported product id " + productId);
+		}
+		Table current = table;
+		int slot = current.find(productId);
+		if(slot >= 0) {
+			return slot;
+		}
+		if(current.size + 1 > current.keys.length * MAX_LOAD) {
+			current = current.resize();
+			// читатели видят либо старую, либо новую таблицу целиком
+			table = current;
+		}
+		return current.insert(productId);
+	}
+	
+	private static final class Table {
+		private final long[] keys;
+		private final double[] averages;
+		private final int[] counts;
+		private final double[] mins;
+		private final double[] maxs;
+		private final double[] medians;
+		private final double[] p90s;
+		private final int mask;
+		private int size;
+		
+		Table(int capacity) {
+			this.keys = new long[capacity];
+			Arrays.fill(keys, EMPTY);
+			this.averages = new double[capacity];
+			this.counts = new int[capacity];
+			this.mins = new double[capacity];
+			this.maxs = new double[capacity];
+			this.medians = new double[capacity];
+			this.p90s = new double[capacity];
+			this.mask = capacity - 1;
+		}
+		
+		private int indexFor(long productId) {
+			long hash = productId * 0x9E3779B97F4A7C15L;
+			return (int) (hash ^ (hash >>> 32)) & mask;
+		}
+		
+		/**
+		 * Слот продукта или -1. Таблица никогда не заполнена целиком, поэтому поиск завершается
+		 * даже при чтении, пересекшемся с записью.
+		 */
+		int find(long productId) {
+			for(int slot = indexFor(productId); ; slot = (slot + 1) & mask) {
+				long key = keys[slot];
+				if(key == productId) {
+					return slot;
+				}
+				if(key == EMPTY) {
+					return -1;
+				}
+			}
+		}
+		
+		int insert(long productId) {
+			int slot = indexFor(productId);
+			while(keys[slot] != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			mins[slot] = Double.NaN;
+			maxs[slot] = Double.NaN;
+			medians[slot] = Double.NaN;
+			p90s[slot] = Double.NaN;
+			keys[slot] = productId;
+			size++;
+			return slot;
+		}
+		
+		AveragePrice read(long productId) {
+			int slot = find(productId);
+			if(slot < 0) {
+				return null;
+			}
+			AveragePrice averagePrice = new AveragePrice(productId, averages[slot], counts[slot]);
+			if(!Double.isNaN(mins[slot])) {
+				averagePrice.setMinPrice(mins[slot]);
+				averagePrice.setMaxPrice(maxs[slot]);
+			}
+			if(!Double.isNaN(medians[slot])) {
+				averagePrice.setMedianPrice(medians[slot]);
+				averagePrice.setP90Price(p90s[slot]);
+			}
+			return averagePrice;
+		}
+		
+		Table resize() {
+			Table resized = new Table(keys.length << 1);
+			for(int slot = 0; slot < keys.length; slot++) {
+				if(keys[slot] != EMPTY) {
+					int target = resized.insert(keys[slot]);
+					resized.averages[target] = averages[slot];
+					resized.counts[target] = counts[slot];
+					resized.mins[target] = mins[slot];
+					resized.maxs[target] = maxs[slot];
+					resized.medians[target] = medians[slot];
+					resized.p90s[target] = p90s[slot];
+				}
+			}
+			return resized;
+		}
+	}
+}
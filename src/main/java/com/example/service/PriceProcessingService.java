@@ -1,70 +1,458 @@
 package com.example.service;
 
+import com.example.config.ApplicationConfig;
 import com.example.model.PriceUpdate;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Обновления маршрутизируются по product_id в фиксированное число полос (stripe). Каждая полоса —
+ * единственный писатель для своих продуктов: накопившиеся обновления сливаются (для пары продукт/производитель
+ * побеждает последнее) и пишутся одной транзакцией, поэтому транзакции этого процесса не конкурируют
+ * за одну строку average_prices, а разные продукты обрабатываются параллельно.
+ * <p>
+ * Очередь ограничена {@code ingest.queue.capacity} обновлениями. При переполнении политика {@code reject}
+ * сразу отклоняет запрос, {@code block} ждет освобождения места не дольше {@code ingest.queue.offer-timeout-ms}.
+ * <p>
+ * При {@code threads.virtual} полосы работают на виртуальных потоках и их по умолчанию больше, чем ядер;
+ * одновременная работа с базой тогда ограничена семафором размером с пул соединений, а не числом потоков.
+ * <p>
+ * При {@code ingest.journal.enabled} запрос перед постановкой в очередь записывается в {@link IngestionJournal},
+ * так что принятые обновления переживают перезапуск: {@link #recoverJournal()} проигрывает их при старте.
+ */
 public class PriceProcessingService {
 	private static final Logger logger = LoggerFactory.getLogger(PriceProcessingService.class);
 	
+	private static final Comparator<PriceUpdate> OFFER_ORDER =
+			Comparator.comparing(PriceUpdate::getProductId).thenComparing(PriceUpdate::getManufacturerName);
+	
 	private final DatabaseService databaseService;
-	private final ExecutorService executorService;
+	private final Stripe[] stripes;
+	private final boolean virtualThreads;
+	private final Semaphore databasePermits;
+	
+	private final int capacity;
+	private final Semaphore capacityPermits;
+	private final boolean blockWhenFull;
+	private final long offerTimeoutMillis;
+	private final int retryAfterSeconds;
+	
+	private final IngestionJournal journal;
+	// пока журнал прошлого запуска не проигран, новые обновления могли бы обогнать более старые из журнала
+	private volatile boolean journalRecovered;
+	
+	private final LongAdder rejectedCount = new LongAdder();
+	private final LongAdder failedCount = new LongAdder();
+	private final LongAdder collapsedCount = new LongAdder();
+	private final LongAdder waitedBatchCount = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+	
+	private final Timer queueWaitTimer;
+	private final Timer batchWriteTimer;
+	private final DistributionSummary batchSizeSummary;
 	
 	public PriceProcessingService(DatabaseService databaseService) {
+		this(databaseService, ApplicationConfig.load());
+	}
+	
+	public PriceProcessingService(DatabaseService databaseService, ApplicationConfig config) {
 		this.databaseService = databaseService;
-		this.executorService = Executors.newFixedThreadPool(
-				Runtime.getRuntime().availableProcessors(),
-				new ThreadFactory() {
-					private final AtomicInteger counter = new AtomicInteger(1);
-					
-					@Override
-					public Thread newThread(Runnable r) {
-						Thread thread = new Thread(r, "price-processor-" + counter.getAndIncrement());
-						thread.setDaemon(true);
-						return thread;
-					}
-				}
-		);
+		
+		this.capacity = config.getInt("ingest.queue.capacity", 100_000);
+		this.capacityPermits = new Semaphore(capacity, true);
+		this.blockWhenFull = "block".equalsIgnoreCase(config.getString("ingest.queue.rejection-policy", "reject"));
+		this.offerTimeoutMillis = config.getLong("ingest.queue.offer-timeout-ms", 1000);
+		this.retryAfterSeconds = config.getInt("ingest.queue.retry-after-seconds", 1);
+		
+		if(config.getBoolean("ingest.journal.enabled", false)) {
+			this.journal = new IngestionJournal(
+					Path.of(config.getString("ingest.journal.dir", "journal")),
+					config.getLong("ingest.journal.segment-size-bytes", 64L * 1024 * 1024));
+		} else {
+			this.journal = null;
+		}
+		this.journalRecovered = journal == null || !journal.hasRecoveredSegments();
+		
+		MeterRegistry registry = Metrics.globalRegistry;
+		Gauge.builder("price.ingest.queue.depth", this, PriceProcessingService::getQueueDepth)
+				.description("Accepted price updates not yet written to the database")
+				.baseUnit("updates")
+				.register(registry);
+		FunctionCounter.builder("price.ingest.rejected", rejectedCount, LongAdder::sum)
+				.description("Requests rejected because the ingestion queue was full")
+				.register(registry);
+		FunctionCounter.builder("price.ingest.failed", failedCount, LongAdder::sum)
+				.description("Accepted updates that failed to be written to the database")
+				.baseUnit("updates")
+				.register(registry);
+		FunctionCounter.builder("price.ingest.collapsed", collapsedCount, LongAdder::sum)
+				.description("Updates dropped on intake because the same request had a later price for the offer")
+				.baseUnit("updates")
+				.register(registry);
+		this.queueWaitTimer = Timer.builder("price.ingest.queue.wait")
+									  .description("Time from enqueue until a stripe starts writing the updates")
+									  .publishPercentileHistogram()
+									  .register(registry);
+		this.batchWriteTimer = Timer.builder("price.processing.batch")
+									   .description("Time a stripe spends writing one merged batch")
+									   .publishPercentileHistogram()
+									   .register(registry);
+		this.batchSizeSummary = DistributionSummary.builder("price.processing.batch.size")
+										.description("Offers per merged batch after coalescing")
+										.baseUnit("updates")
+										.register(registry);
+		
+		this.virtualThreads = config.getBoolean("threads.virtual", false);
+		int defaultStripes;
+		if(virtualThreads) {
+			this.databasePermits = new Semaphore(databaseService.getPoolSize());
+			defaultStripes = databaseService.getPoolSize() * 4;
+		} else {
+			this.databasePermits = null;
+			defaultStripes = Runtime.getRuntime().availableProcessors();
+		}
+		
+		int stripeCount = config.getInt("processing.stripes", defaultStripes);
+		this.stripes = new Stripe[stripeCount];
+		for(int i = 0; i < stripeCount; i++) {
+			stripes[i] = new Stripe(i + 1);
+		}
 	}
 	
+	/**
+	 * Ставит обновления в очередь. Бросает {@link IngestionRejectedException}, если очередь заполнена,
+	 * и {@link IllegalArgumentException}, если запрос больше всей емкости очереди.
+	 */
 	public CompletableFuture<Void> processPriceUpdates(List<PriceUpdate> priceUpdates) {
-		logger.info("Обработка {} обновлений цен", priceUpdates.size());
+		return processPriceUpdates(priceUpdates, false);
+	}
+	
+	/**
+	 * @param waitForCapacity ждать освобождения места в очереди без ограничения по времени, независимо
+	 *                        от политики переполнения; для потокового приема, где ожидание тормозит чтение тела
+	 */
+	public CompletableFuture<Void> processPriceUpdates(List<PriceUpdate> priceUpdates, boolean waitForCapacity) {
+		Submission submission = submit(priceUpdates, waitForCapacity);
+		try {
+			submission.accepted().join();
+		} catch(CompletionException e) {
+			throw e.getCause() instanceof RuntimeException cause ? cause : e;
+		}
+		return submission.completed();
+	}
+	
+	/**
+	 * Неблокирующий вариант {@link #processPriceUpdates(List, boolean)}: место в очереди занимается сразу
+	 * (с политикой {@code block} — с ожиданием до {@code ingest.queue.offer-timeout-ms}), а запись в журнал
+	 * и в базу не ждется. {@code accepted} завершается, когда обновления записаны в журнал (ошибка —
+	 * {@link java.io.UncheckedIOException}), {@code completed} — когда они записаны в базу.
+	 */
+	public Submission submit(List<PriceUpdate> priceUpdates, boolean waitForCapacity) {
+		if(!journalRecovered) {
+			rejectedCount.increment();
+			throw new IngestionRejectedException("Идет восстановление журнала обновлений", retryAfterSeconds);
+		}
+		List<PriceUpdate> updates = collapseDuplicates(priceUpdates);
+		logger.info("Обработка {} обновлений цен", updates.size());
+		
+		if(waitForCapacity) {
+			awaitCapacity(updates.size());
+		} else {
+			acquireCapacity(updates.size());
+		}
+		
+		CompletableFuture<IngestionJournal.Entry> journaled;
+		if(journal != null) {
+			try {
+				journaled = journal.appendAsync(updates);
+			} catch(RuntimeException e) {
+				capacityPermits.release(updates.size());
+				throw e;
+			}
+		} else {
+			journaled = CompletableFuture.completedFuture(null);
+		}
+		
+		CompletableFuture<Void> accepted = new CompletableFuture<>();
+		CompletableFuture<Void> completed = journaled.handle((entry, journalError) -> {
+			if(journalError != null) {
+				capacityPermits.release(updates.size());
+				accepted.completeExceptionally(new UncheckedIOException("Failed to write ingestion journal",
+						journalError instanceof IOException io ? io : new IOException(journalError)));
+				return CompletableFuture.<Void>failedFuture(journalError);
+			}
+			accepted.complete(null);
+			CompletableFuture<Void> processing = submitToStripes(updates);
+			if(entry != null) {
+				// пакет, который не удалось применить, сохраняется в карантине журнала, а не теряется вместе с сегментом
+				processing.whenComplete((result, throwable) -> {
+					if(throwable == null) {
+						journal.markApplied(entry);
+					} else {
+						journal.markFailed(entry, updates, throwable);
+					}
+				});
+			}
+			return processing;
+		}).thenCompose(processing -> processing);
+		
+		completed.whenComplete((result, throwable) -> {
+			if(throwable != null) {
+				logger.error("Ошибка при обработке обновлений цен", throwable);
+			} else {
+				logger.info("Успешно обработано {} обновлений цен", updates.size());
+			}
+		});
+		return new Submission(accepted, completed);
+	}
+	
+	public record Submission(CompletableFuture<Void> accepted, CompletableFuture<Void> completed) {
+	}
+	
+	/**
+	 * Оставляет последнее обновление каждой пары (product_id, manufacturer_name) до журнала и очереди:
+	 * повторы в одном запросе не занимают емкость и не доходят до базы.
+	 */
+	private List<PriceUpdate> collapseDuplicates(List<PriceUpdate> priceUpdates) {
+		Map<OfferKey, PriceUpdate> latest = new LinkedHashMap<>(priceUpdates.size() * 4 / 3 + 1);
+		for(PriceUpdate priceUpdate : priceUpdates) {
+			latest.put(new OfferKey(priceUpdate.getProductId(), priceUpdate.getManufacturerName()), priceUpdate);
+		}
+		if(latest.size() == priceUpdates.size()) {
+			return priceUpdates;
+		}
+		collapsedCount.add(priceUpdates.size() - latest.size());
+		return new ArrayList<>(latest.values());
+	}
+	
+	/**
+	 * Проигрывает журнал, оставшийся от предыдущего запуска. До его окончания новые запросы отклоняются
+	 * с {@link IngestionRejectedException}, чтобы не обогнать более старые обновления из журнала.
+	 */
+	public void recoverJournal() {
+		if(journalRecovered) {
+			return;
+		}
+		int records = journal.recover(priceUpdates -> {
+			List<CompletableFuture<Void>> parts = new ArrayList<>();
+			for(int from = 0; from < priceUpdates.size(); from += capacity) {
+				List<PriceUpdate> part = priceUpdates.subList(from, Math.min(from + capacity, priceUpdates.size()));
+				capacityPermits.acquireUninterruptibly(part.size());
+				parts.add(submitToStripes(part));
+			}
+			return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0]));
+		});
+		journalRecovered = true;
+		logger.info("Восстановлено {} пакетов обновлений цен из журнала", records);
+	}
+	
+	private CompletableFuture<Void> submitToStripes(List<PriceUpdate> priceUpdates) {
+		Map<Integer, List<PriceUpdate>> byStripe = new LinkedHashMap<>();
+		for(PriceUpdate priceUpdate : priceUpdates) {
+			byStripe.computeIfAbsent(stripeIndex(priceUpdate.getProductId()), i -> new ArrayList<>()).add(priceUpdate);
+		}
 		
-		List<CompletableFuture<Void>> futures = priceUpdates.stream()
-														.map(this :: processPriceUpdateAsync)
-														.toList();
+		List<CompletableFuture<Void>> futures = new ArrayList<>(byStripe.size());
+		byStripe.forEach((index, updates) -> futures.add(stripes[index].submit(updates)));
 		
-		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-					   .whenComplete((result, throwable) -> {
-						   if(throwable != null) {
-							   logger.error("Ошибка при обработке обновлений цен", throwable);
-						   } else {
-							   logger.info("Успешно обработано {} обновлений цен", priceUpdates.size());
-						   }
-					   });
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
 	}
 	
-	private CompletableFuture<Void> processPriceUpdateAsync(PriceUpdate priceUpdate) {
-		return CompletableFuture.runAsync(() -> {
+	private void acquireCapacity(int size) {
+		if(size > capacity) {
+			throw new IllegalArgumentException("Размер запроса " + size + " превышает емкость очереди " + capacity);
+		}
+		
+		boolean acquired;
+		if(blockWhenFull) {
 			try {
-				databaseService.updatePrice(priceUpdate);
-				logger.debug("Обработано обновление цены: {}", priceUpdate);
-			} catch(Exception e) {
-				logger.error("Ошибка при обработке обновления цены: {}", priceUpdate, e);
-				throw new RuntimeException("Не удалось обработать обновление цены", e);
+				acquired = capacityPermits.tryAcquire(size, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				acquired = false;
 			}
-		}, executorService);
+		} else {
+			acquired = capacityPermits.tryAcquire(size);
+		}
+		
+		if(!acquired) {
+			rejectedCount.increment();
+			logger.warn("Очередь обработки заполнена, запрос из {} обновлений отклонен", size);
+			throw new IngestionRejectedException("Очередь обработки цен заполнена", retryAfterSeconds);
+		}
+	}
+	
+	private void awaitCapacity(int size) {
+		if(size > capacity) {
+			throw new IllegalArgumentException("Размер запроса " + size + " превышает емкость очереди " + capacity);
+		}
+		try {
+			capacityPermits.acquire(size);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejectedCount.increment();
+			throw new IngestionRejectedException("Ожидание места в очереди прервано", retryAfterSeconds);
+		}
+	}
+	
+	public int getQueueCapacity() {
+		return capacity;
+	}
+	
+	public int getQueueDepth() {
+		return capacity - capacityPermits.availablePermits();
+	}
+	
+	public long getRejectedCount() {
+		return rejectedCount.sum();
+	}
+	
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+	
+	public double getAverageWaitMillis() {
+		long batches = waitedBatchCount.sum();
+		return batches == 0 ? 0 : totalWaitNanos.sum() / 1_000_000.0 / batches;
+	}
+	
+	public double getMaxWaitMillis() {
+		return maxWaitNanos.get() / 1_000_000.0;
+	}
+	
+	private int stripeIndex(long productId) {
+		int hash = Long.hashCode(productId);
+		return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
 	}
 	
 	public void shutdown() {
 		logger.info("Завершение работы сервиса обработки цен");
-		executorService.shutdown();
+		for(Stripe stripe : stripes) {
+			stripe.executor.shutdown();
+		}
+		if(journal != null) {
+			journal.close();
+		}
+	}
+	
+	private record OfferKey(Long productId, String manufacturerName) {
+	}
+	
+	private record PendingBatch(List<PriceUpdate> updates, CompletableFuture<Void> future, long enqueuedAt) {
+	}
+	
+	private final class Stripe {
+		private final Queue<PendingBatch> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final ExecutorService executor;
+		
+		Stripe(int number) {
+			if(virtualThreads) {
+				this.executor = Executors.newSingleThreadExecutor(
+						Thread.ofVirtual().name("price-processor-" + number).factory());
+			} else {
+				this.executor = Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "price-processor-" + number);
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+		
+		CompletableFuture<Void> submit(List<PriceUpdate> updates) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			queue.add(new PendingBatch(updates, future, System.nanoTime()));
+			if(scheduled.compareAndSet(false, true)) {
+				executor.execute(this :: drain);
+			}
+			return future;
+		}
+		
+		private void drain() {
+			while(true) {
+				List<PendingBatch> taken = new ArrayList<>();
+				Map<OfferKey, PriceUpdate> merged = new LinkedHashMap<>();
+				PendingBatch next;
+				while(merged.size() < databaseService.getBatchSize() && (next = queue.poll()) != null) {
+					taken.add(next);
+					for(PriceUpdate priceUpdate : next.updates()) {
+						merged.put(new OfferKey(priceUpdate.getProductId(), priceUpdate.getManufacturerName()), priceUpdate);
+					}
+				}
+				
+				if(taken.isEmpty()) {
+					scheduled.set(false);
+					if(queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+						return;
+					}
+					continue;
+				}
+				
+				write(merged, taken);
+			}
+		}
+		
+		private void write(Map<OfferKey, PriceUpdate> merged, List<PendingBatch> taken) {
+			long now = System.nanoTime();
+			for(PendingBatch pending : taken) {
+				long waitNanos = now - pending.enqueuedAt();
+				waitedBatchCount.increment();
+				totalWaitNanos.add(waitNanos);
+				maxWaitNanos.accumulate(waitNanos);
+				queueWaitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+			}
+			
+			List<PriceUpdate> batch = new ArrayList<>(merged.values());
+			batch.sort(OFFER_ORDER);
+			batchSizeSummary.record(batch.size());
+			try {
+				if(databasePermits != null) {
+					databasePermits.acquireUninterruptibly();
+					try {
+						batchWriteTimer.record(() -> databaseService.updatePrices(batch));
+					} finally {
+						databasePermits.release();
+					}
+				} else {
+					batchWriteTimer.record(() -> databaseService.updatePrices(batch));
+				}
+				logger.debug("Обработан батч из {} обновлений цен ({} запросов)", batch.size(), taken.size());
+				taken.forEach(pending -> pending.future().complete(null));
+			} catch(Exception e) {
+				logger.error("Ошибка при обработке батча из {} обновлений цен", batch.size(), e);
+				taken.forEach(pending -> failedCount.add(pending.updates().size()));
+				RuntimeException failure = new RuntimeException("Не удалось обработать обновления цен", e);
+				taken.forEach(pending -> pending.future().completeExceptionally(failure));
+			} finally {
+				taken.forEach(pending -> capacityPermits.release(pending.updates().size()));
+			}
+		}
 	}
-}
\ No newline at end of file
+}
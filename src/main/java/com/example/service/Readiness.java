@@ -0,0 +1,73 @@
+package com.example.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Готовность экземпляра принимать трафик: именованные шаги старта (миграции, прогрев пулов, журнал, индекс),
+ * которые идут параллельно с запуском Jetty. Экземпляр готов, когда все зарегистрированные шаги завершены;
+ * упавший шаг оставляет его неготовым навсегда — такой экземпляр нужно перезапустить.
+ */
+public class Readiness {
+	private static final Logger logger = LoggerFactory.getLogger(Readiness.class);
+	
+	public enum State {
+		PENDING, DONE, FAILED
+	}
+	
+	private final long startedAtMillis;
+	private final Map<String, State> steps = new LinkedHashMap<>();
+	private volatile long readyAtMillis = -1;
+	private volatile boolean failed;
+	
+	/**
+	 * @param startedAtMillis момент запуска JVM, от которого отсчитывается время до готовности
+	 */
+	public Readiness(long startedAtMillis) {
+		this.startedAtMillis = startedAtMillis;
+	}
+	
+	public synchronized void register(String step) {
+		steps.put(step, State.PENDING);
+	}
+	
+	public synchronized void complete(String step) {
+		steps.put(step, State.DONE);
+		if(readyAtMillis < 0 && !failed && !steps.containsValue(State.PENDING)) {
+			readyAtMillis = System.currentTimeMillis();
+			logger.info("Service is ready {} ms after JVM start", getStartupMillis());
+		}
+	}
+	
+	public synchronized void fail(String step, Throwable cause) {
+		steps.put(step, State.FAILED);
+		failed = true;
+		logger.error("Startup step {} failed, the service will not become ready", step, cause);
+	}
+	
+	public boolean isReady() {
+		return readyAtMillis >= 0;
+	}
+	
+	/**
+	 * Хотя бы один шаг старта завершился ошибкой.
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+	
+	/**
+	 * Время от запуска JVM до готовности в миллисекундах или -1, пока экземпляр не готов.
+	 */
+	public long getStartupMillis() {
+		long readyAt = readyAtMillis;
+		return readyAt < 0 ? -1 : readyAt - startedAtMillis;
+	}
+	
+	public synchronized Map<String, State> getSteps() {
+		return new LinkedHashMap<>(steps);
+	}
+}
@@ -0,0 +1,104 @@
+package com.example.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выбирает источник для чтения: реплику, пока ее отставание не превышает {@code maxLagMillis},
+ * иначе основной сервер. Отставание периодически измеряется на самой реплике; ошибка запроса к реплике
+ * переключает чтение на основной сервер до следующего успешного замера.
+ */
+class ReplicaRouter implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(ReplicaRouter.class);
+	
+	// при совпадении принятой и примененной позиции WAL реплика догнала основной сервер,
+	// даже если последняя транзакция была давно
+	private static final String LAG_SQL = """
+			    SELECT CASE
+			               WHEN NOT pg_is_in_recovery() THEN 0
+			               WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+			               ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0)
+			           END
+			""";
+	
+	private final DataSource primary;
+	private final DataSource replica;
+	private final long maxLagMillis;
+	private final long checkIntervalMillis;
+	private final ScheduledExecutorService probe;
+	
+	private volatile boolean replicaUsable;
+	private volatile double lagMillis = -1;
+	
+	ReplicaRouter(DataSource primary, DataSource replica, long maxLagMillis, long checkIntervalMillis) {
+		this.primary = primary;
+		this.replica = replica;
+		this.maxLagMillis = maxLagMillis;
+		this.checkIntervalMillis = checkIntervalMillis;
+		
+		this.probe = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "replica-lag-probe");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Gauge.builder("db.replica.lag", this, router -> router.lagMillis)
+				.description("Replication lag of the read replica, -1 when unknown")
+				.baseUnit("milliseconds")
+				.register(Metrics.globalRegistry);
+		Gauge.builder("db.replica.usable", this, router -> router.replicaUsable ? 1 : 0)
+				.description("1 when reads are routed to the replica")
+				.register(Metrics.globalRegistry);
+	}
+	
+	/**
+	 * Запускает замеры отставания; до первого успешного замера чтения идут в основной сервер.
+	 */
+	void start() {
+		probe.scheduleWithFixedDelay(this :: checkLag, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	DataSource readSource() {
+		return replicaUsable ? replica : primary;
+	}
+	
+	void reportReplicaFailure(SQLException e) {
+		if(replicaUsable) {
+			logger.warn("Read replica query failed, routing reads to the primary", e);
+			replicaUsable = false;
+		}
+	}
+	
+	private void checkLag() {
+		try(Connection conn = replica.getConnection();
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery(LAG_SQL)) {
+			rs.next();
+			lagMillis = rs.getDouble(1);
+			boolean usable = lagMillis <= maxLagMillis;
+			if(usable != replicaUsable) {
+				logger.info("Read replica lag is {} ms, routing reads to the {}", Math.round(lagMillis),
+						usable ? "replica" : "primary");
+			}
+			replicaUsable = usable;
+		} catch(SQLException e) {
+			lagMillis = -1;
+			reportReplicaFailure(e);
+		}
+	}
+	
+	@Override
+	public void close() {
+		probe.shutdownNow();
+	}
+}
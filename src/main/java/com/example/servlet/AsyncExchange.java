@@ -0,0 +1,266 @@
+package com.example.servlet;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Запрос в асинхронном режиме сервлета: тело читается через {@link ReadListener}, ответ пишется через
+ * {@link WriteListener}, так что поток Jetty не ждет ни медленного клиента, ни базы. Ответ отправляется
+ * ровно один раз — обработчиком или по таймауту {@link AsyncContext}.
+ */
+final class AsyncExchange {
+	private static final Logger logger = LoggerFactory.getLogger(AsyncExchange.class);
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	
+	/**
+	 * Получатель тела запроса; вызывается последовательно потоками Jetty. Исключение останавливает чтение
+	 * и передается в {@link #onError}.
+	 */
+	interface BodyConsumer {
+		void onData(byte[] buffer, int length) throws Exception;
+		
+		void onEnd() throws Exception;
+		
+		void onError(Throwable throwable);
+	}
+	
+	private final HttpServletRequest request;
+	private final HttpServletResponse response;
+	private final AsyncContext context;
+	private final AtomicBoolean responded = new AtomicBoolean();
+	private volatile Runnable abandonedAction;
+	
+	private AsyncExchange(HttpServletRequest request, HttpServletResponse response, long timeoutMillis,
+						  byte[] timeoutBody) {
+		this.request = request;
+		this.response = response;
+		this.context = request.startAsync();
+		context.setTimeout(timeoutMillis);
+		context.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				logger.warn("Запрос {} не обработан за {} мс", request.getRequestURI(), timeoutMillis);
+				if(respond(HttpServletResponse.SC_SERVICE_UNAVAILABLE, timeoutBody)) {
+					runAbandonedAction();
+				} else {
+					context.complete();
+				}
+			}
+			
+			@Override
+			public void onError(AsyncEvent event) {
+				if(!responded.getAndSet(true)) {
+					runAbandonedAction();
+				}
+				context.complete();
+			}
+			
+			@Override
+			public void onComplete(AsyncEvent event) {
+			}
+			
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+	}
+	
+	/**
+	 * @param timeoutMillis 0 — без таймаута
+	 */
+	static AsyncExchange start(HttpServletRequest request, HttpServletResponse response, long timeoutMillis,
+							   byte[] timeoutBody) {
+		return new AsyncExchange(request, response, timeoutMillis, timeoutBody);
+	}
+	
+	HttpServletRequest request() {
+		return request;
+	}
+	
+	HttpServletResponse response() {
+		return response;
+	}
+	
+	boolean isResponded() {
+		return responded.get();
+	}
+	
+	/**
+	 * Действие на случай, когда обмен завершается без ответа обработчика: по таймауту или из-за ошибки соединения.
+	 */
+	void onAbandoned(Runnable action) {
+		this.abandonedAction = action;
+	}
+	
+	private void runAbandonedAction() {
+		Runnable action = abandonedAction;
+		if(action != null) {
+			action.run();
+		}
+	}
+	
+	/**
+	 * Читает тело без блокировки и передает его частями. Буфер переиспользуется между вызовами.
+	 */
+	void read(BodyConsumer consumer) throws IOException {
+		ServletInputStream in = request.getInputStream();
+		in.setReadListener(new ReadListener() {
+			private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+			private boolean failed;
+			
+			@Override
+			public void onDataAvailable() throws IOException {
+				while(!failed && in.isReady()) {
+					int length = in.read(buffer);
+					if(length < 0) {
+						return;
+					}
+					try {
+						consumer.onData(buffer, length);
+					} catch(Exception e) {
+						fail(e);
+					}
+				}
+			}
+			
+			@Override
+			public void onAllDataRead() {
+				if(failed) {
+					return;
+				}
+				try {
+					consumer.onEnd();
+				} catch(Exception e) {
+					fail(e);
+				}
+			}
+			
+			@Override
+			public void onError(Throwable throwable) {
+				fail(throwable);
+			}
+			
+			private void fail(Throwable throwable) {
+				if(!failed) {
+					failed = true;
+					consumer.onError(throwable);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Тело целиком; при превышении {@code maxBytes} future завершается {@link RequestTooLargeException}.
+	 */
+	CompletableFuture<byte[]> readBody(long maxBytes) throws IOException {
+		CompletableFuture<byte[]> body = new CompletableFuture<>();
+		long contentLength = request.getContentLengthLong();
+		if(contentLength > maxBytes) {
+			body.completeExceptionally(new RequestTooLargeException(maxBytes));
+			return body;
+		}
+		
+		ByteArrayOutputStream collected = new ByteArrayOutputStream(contentLength > 0 ? (int) contentLength : READ_BUFFER_SIZE);
+		read(new BodyConsumer() {
+			@Override
+			public void onData(byte[] buffer, int length) {
+				if(collected.size() + (long) length > maxBytes) {
+					throw new RequestTooLargeException(maxBytes);
+				}
+				collected.write(buffer, 0, length);
+			}
+			
+			@Override
+			public void onEnd() {
+				body.complete(collected.toByteArray());
+			}
+			
+			@Override
+			public void onError(Throwable throwable) {
+				body.completeExceptionally(throwable);
+			}
+		});
+		return body;
+	}
+	
+	/**
+	 * Отправляет ответ без блокировки и завершает обмен. Возвращает false, если ответ уже был отправлен.
+	 * Заголовки, кроме длины, выставляются до вызова.
+	 */
+	boolean respond(int status, byte[] body) {
+		if(!responded.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			response.setStatus(status);
+			response.setContentLength(body.length);
+			ServletOutputStream out = response.getOutputStream();
+			out.setWriteListener(new WriteListener() {
+				private boolean written;
+				
+				@Override
+				public void onWritePossible() throws IOException {
+					while(out.isReady()) {
+						if(written) {
+							context.complete();
+							return;
+						}
+						out.write(body);
+						written = true;
+					}
+				}
+				
+				@Override
+				public void onError(Throwable throwable) {
+					logger.warn("Не удалось отправить ответ на {}", request.getRequestURI(), throwable);
+					context.complete();
+				}
+			});
+		} catch(IOException | IllegalStateException e) {
+			logger.warn("Не удалось отправить ответ на {}", request.getRequestURI(), e);
+			context.complete();
+		}
+		return true;
+	}
+	
+	/**
+	 * Для ответов, которые пишутся потоком из рабочего потока блокирующими вызовами (без {@link WriteListener}).
+	 */
+	boolean claim() {
+		return responded.compareAndSet(false, true);
+	}
+	
+	void complete() {
+		context.complete();
+	}
+	
+	/**
+	 * Обрывает соединение вместо штатного завершения: для потокового ответа, у которого статус и часть тела
+	 * уже ушли клиенту. Клиент видит обрыв, а не корректно завершенный усеченный ответ.
+	 */
+	void abort(Throwable cause) {
+		Request.getBaseRequest(request).getHttpChannel().abort(cause);
+		context.complete();
+	}
+	
+	static final class RequestTooLargeException extends RuntimeException {
+		RequestTooLargeException(long maxBytes) {
+			super("Тело запроса больше " + maxBytes + " байт");
+		}
+	}
+}
@@ -1,9 +1,13 @@
 package com.example.servlet;
 
+import com.example.config.ApplicationConfig;
 import com.example.model.ApiResponse;
 import com.example.model.AveragePrice;
 import com.example.service.DatabaseService;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.service.PriceIndex;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -12,71 +16,348 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
-@WebServlet("/api/prices/average/*")
+/**
+ * Чтение средних цен в асинхронном режиме сервлета: поток Jetty только разбирает параметры, обращение к базе
+ * выполняется на {@code executor}, ответ отправляется без блокировки. Если включен и заполнен {@link PriceIndex},
+ * запросы по ID отвечаются из него прямо на потоке Jetty, без базы и исполнителя.
+ */
+@WebServlet(value = "/api/prices/average/*", asyncSupported = true)
 public class AveragePriceServlet extends HttpServlet {
 	private static final Logger logger = LoggerFactory.getLogger(AveragePriceServlet.class);
+	private static final int MAX_BULK_IDS = 1000;
+	private static final long MAX_BULK_BODY_BYTES = 64 * 1024;
 	
 	private final DatabaseService databaseService;
-	private final ObjectMapper objectMapper;
+	private final PriceIndex priceIndex;
+	private final Executor executor;
+	private final long asyncTimeoutMillis;
+	private final Map<WireFormat, byte[]> timeoutBodies = new EnumMap<>(WireFormat.class);
 	
-	public AveragePriceServlet(DatabaseService databaseService) {
+	public AveragePriceServlet(DatabaseService databaseService, Executor executor, ApplicationConfig config) {
 		this.databaseService = databaseService;
-		this.objectMapper = new ObjectMapper();
+		this.priceIndex = databaseService.getPriceIndex();
+		this.executor = executor;
+		this.asyncTimeoutMillis = config.getLong("server.async-timeout-ms", 30_000);
+		for(WireFormat format : WireFormat.values()) {
+			timeoutBodies.put(format, encode(format, new ApiResponse("error", "Запрос не обработан вовремя, повторите позже", null)));
+		}
 	}
 	
 	@Override
 	protected void doGet(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		response.setContentType("application/json");
-		response.setCharacterEncoding("UTF-8");
+		WireFormat format = WireFormat.negotiate(request.getHeader("Accept"), WireFormat.JSON);
+		format.apply(response);
+		byte[] timeoutBody = timeoutBodies.get(format);
 		
-		try {
-			String pathInfo = request.getPathInfo();
+		String pathInfo = request.getPathInfo();
+		
+		if((pathInfo == null || pathInfo.equals("/")) && request.getParameter("ids") != null) {
+			AsyncExchange exchange = AsyncExchange.start(request, response, asyncTimeoutMillis, timeoutBody);
+			List<Long> productIds;
+			try {
+				productIds = parseIds(request.getParameter("ids"));
+			} catch(NumberFormatException e) {
+				logger.error("Некорректный список ID продуктов: {}", request.getParameter("ids"));
+				respond(exchange, format, HttpServletResponse.SC_BAD_REQUEST,
+						new ApiResponse("error", "Некорректный список ID продуктов", null));
+				return;
+			}
+			if(isIndexReady()) {
+				writeAveragePrices(exchange, format, productIds, priceIndex.getAll(productIds));
+			} else {
+				execute(exchange, format, () ->
+						writeAveragePrices(exchange, format, productIds, databaseService.getAveragePrices(productIds)));
+			}
+			
+		} else if(pathInfo == null || pathInfo.equals("/")) {
+			Long after;
+			Integer limit;
+			try {
+				after = parseOptionalLong(request.getParameter("after"));
+				Long limitParam = parseOptionalLong(request.getParameter("limit"));
+				if(limitParam != null && (limitParam <= 0 || limitParam > Integer.MAX_VALUE)) {
+					throw new NumberFormatException("limit out of range");
+				}
+				limit = limitParam != null ? limitParam.intValue() : null;
+			} catch(NumberFormatException e) {
+				logger.error("Некорректные параметры пагинации: after={}, limit={}",
+						request.getParameter("after"), request.getParameter("limit"));
+				AsyncExchange exchange = AsyncExchange.start(request, response, asyncTimeoutMillis, timeoutBody);
+				respond(exchange, format, HttpServletResponse.SC_BAD_REQUEST,
+						new ApiResponse("error", "Некорректные параметры пагинации", null));
+				return;
+			}
+			
+			// полная выдача может идти дольше таймаута — ее длительность ограничивает курсор, а не AsyncContext
+			AsyncExchange exchange = AsyncExchange.start(request, response, 0, timeoutBody);
+			execute(exchange, format, () -> streamAveragePrices(exchange, format, after, limit));
 			
-			if(pathInfo == null || pathInfo.equals("/")) {
-				List<AveragePrice> averagePrices = databaseService.getAllAveragePrices();
-				logger.info("Получено {} средних цен", averagePrices.size());
-				
-				response.setStatus(HttpServletResponse.SC_OK);
-				objectMapper.writeValue(response.getWriter(),
-						new ApiResponse("success", "Средние цены успешно получены", averagePrices));
-				
+		} else {
+			AsyncExchange exchange = AsyncExchange.start(request, response, asyncTimeoutMillis, timeoutBody);
+			String productIdStr = pathInfo.substring(1);
+			Long productId;
+			try {
+				productId = Long.parseLong(productIdStr);
+			} catch(NumberFormatException e) {
+				logger.error("Некорректный ID продукта: {}", productIdStr);
+				respond(exchange, format, HttpServletResponse.SC_BAD_REQUEST,
+						new ApiResponse("error", "Некорректный ID продукта: " + productIdStr, null));
+				return;
+			}
+			
+			if(isIndexReady()) {
+				writeAveragePrice(exchange, format, productId, priceIndex.get(productId));
 			} else {
-				String productIdStr = pathInfo.substring(1);
-				try {
-					Long productId = Long.parseLong(productIdStr);
-					AveragePrice averagePrice = databaseService.getAveragePrice(productId);
-					
-					if(averagePrice != null) {
-						logger.info("Получена средняя цена для продукта {}", productId);
-						response.setStatus(HttpServletResponse.SC_OK);
-						objectMapper.writeValue(response.getWriter(),
-								new ApiResponse("success", "Средняя цена успешно получена", averagePrice));
-					} else {
-						logger.warn("Средняя цена не найдена для продукта {}", productId);
-						response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-						objectMapper.writeValue(response.getWriter(),
-								new ApiResponse("error", "Средняя цена не найдена для продукта " + productId, null));
+				execute(exchange, format, () ->
+						writeAveragePrice(exchange, format, productId, databaseService.getAveragePrice(productId)));
+			}
+		}
+	}
+	
+	private boolean isIndexReady() {
+		return priceIndex != null && priceIndex.isReady();
+	}
+	
+	private void writeAveragePrice(AsyncExchange exchange, WireFormat format, Long productId, AveragePrice averagePrice) {
+		if(averagePrice != null) {
+			logger.info("Получена средняя цена для продукта {}", productId);
+			respond(exchange, format, HttpServletResponse.SC_OK,
+					new ApiResponse("success", "Средняя цена успешно получена", averagePrice));
+		} else {
+			logger.warn("Средняя цена не найдена для продукта {}", productId);
+			respond(exchange, format, HttpServletResponse.SC_NOT_FOUND,
+					new ApiResponse("error", "Средняя цена не найдена для продукта " + productId, null));
+		}
+	}
+	
+	/**
+	 * Пакетный запрос средних цен: тело — массив ID продуктов, для списков, не помещающихся в {@code ?ids=}.
+	 */
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		WireFormat requestFormat = WireFormat.ofContentType(request.getContentType());
+		WireFormat format = WireFormat.negotiate(request.getHeader("Accept"),
+				requestFormat != null ? requestFormat : WireFormat.JSON);
+		format.apply(response);
+		
+		AsyncExchange exchange = AsyncExchange.start(request, response, asyncTimeoutMillis, timeoutBodies.get(format));
+		
+		String pathInfo = request.getPathInfo();
+		if(pathInfo != null && !pathInfo.equals("/")) {
+			respond(exchange, format, HttpServletResponse.SC_METHOD_NOT_ALLOWED,
+					new ApiResponse("error", "Метод не поддерживается", null));
+			return;
+		}
+		if(requestFormat == null) {
+			respond(exchange, format, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, new ApiResponse("error",
+					"Поддерживаются application/json, application/x-jackson-smile и application/cbor", null));
+			return;
+		}
+		
+		exchange.readBody(MAX_BULK_BODY_BYTES).whenComplete((body, throwable) -> {
+			List<Long> productIds;
+			try {
+				if(throwable != null) {
+					throw new IllegalArgumentException(throwable.getMessage(), throwable);
+				}
+				JsonNode ids = requestFormat.mapper().readTree(body);
+				if(ids == null || !ids.isArray() || ids.size() > MAX_BULK_IDS) {
+					throw new IllegalArgumentException("expected array of at most " + MAX_BULK_IDS + " ids");
+				}
+				productIds = new ArrayList<>(ids.size());
+				for(JsonNode id : ids) {
+					if(!id.canConvertToLong()) {
+						throw new IllegalArgumentException("invalid id " + id);
 					}
-				} catch(NumberFormatException e) {
-					logger.error("Некорректный ID продукта: {}", productIdStr);
-					response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-					objectMapper.writeValue(response.getWriter(),
-							new ApiResponse("error", "Некорректный ID продукта: " + productIdStr, null));
+					productIds.add(id.asLong());
 				}
+			} catch(IOException | IllegalArgumentException e) {
+				logger.error("Некорректный список ID продуктов: {}", e.getMessage());
+				respond(exchange, format, HttpServletResponse.SC_BAD_REQUEST, new ApiResponse("error",
+						"Ожидается JSON-массив не более чем из " + MAX_BULK_IDS + " ID продуктов", null));
+				return;
 			}
 			
-		} catch(Exception e) {
-			logger.error("Ошибка при получении средних цен", e);
-			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-			objectMapper.writeValue(response.getWriter(),
-					new ApiResponse("error", "Внутренняя ошибка сервера: " + e.getMessage(), null));
+			if(isIndexReady()) {
+				writeAveragePrices(exchange, format, productIds, priceIndex.getAll(productIds));
+			} else {
+				execute(exchange, format, () ->
+						writeAveragePrices(exchange, format, productIds, databaseService.getAveragePrices(productIds)));
+			}
+		});
+	}
+	
+	/**
+	 * Выполняет обращение к базе на {@code executor}; любая ошибка превращается в ответ 500,
+	 * если ответ еще не начат.
+	 */
+	private void execute(AsyncExchange exchange, WireFormat format, DatabaseTask task) {
+		try {
+			executor.execute(() -> {
+				try {
+					task.run();
+				} catch(Exception e) {
+					logger.error("Ошибка при получении средних цен", e);
+					respond(exchange, format, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+							new ApiResponse("error", "Внутренняя ошибка сервера: " + e.getMessage(), null));
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			logger.error("Запрос средних цен отклонен: сервис останавливается");
+			respond(exchange, format, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					new ApiResponse("error", "Сервис останавливается", null));
+		}
+	}
+	
+	/**
+	 * Компактный ответ пакетного запроса: {@code data} — объект {@code productId -> {averagePrice, offerCount}}
+	 * (плюс статистика, если уже пересчитана), продукты без цен в нем отсутствуют. Ответ из индекса и из базы
+	 * содержит одни и те же поля.
+	 */
+	private void writeAveragePrices(AsyncExchange exchange, WireFormat format, List<Long> productIds,
+									Map<Long, AveragePrice> averagePrices) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(64 + averagePrices.size() * 64);
+		try(JsonGenerator generator = format.mapper().getFactory().createGenerator(body)) {
+			generator.writeStartObject();
+			generator.writeStringField("status", "success");
+			generator.writeStringField("message", "Средние цены успешно получены");
+			generator.writeObjectFieldStart("data");
+			for(AveragePrice averagePrice : averagePrices.values()) {
+				generator.writeObjectFieldStart(Long.toString(averagePrice.getProductId()));
+				generator.writeNumberField("averagePrice", averagePrice.getAveragePrice());
+				generator.writeNumberField("offerCount", averagePrice.getOfferCount());
+				if(averagePrice.getMinPrice() != null) {
+					generator.writeNumberField("minPrice", averagePrice.getMinPrice());
+					generator.writeNumberField("maxPrice", averagePrice.getMaxPrice());
+				}
+				if(averagePrice.getMedianPrice() != null) {
+					generator.writeNumberField("medianPrice", averagePrice.getMedianPrice());
+					generator.writeNumberField("p90Price", averagePrice.getP90Price());
+				}
+				generator.writeEndObject();
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+		} catch(IOException e) {
+			// запись в ByteArrayOutputStream не бросает IOException, ошибка может быть только в кодировании
+			throw new IllegalStateException(e);
+		}
+		
+		exchange.respond(HttpServletResponse.SC_OK, body.toByteArray());
+		logger.info("Получены средние цены для {} из {} продуктов", averagePrices.size(), productIds.size());
+	}
+	
+	private List<Long> parseIds(String value) {
+		String[] parts = value.split(",");
+		if(parts.length > MAX_BULK_IDS) {
+			throw new NumberFormatException("too many ids");
+		}
+		List<Long> productIds = new ArrayList<>(parts.length);
+		for(String part : parts) {
+			if(!part.isBlank()) {
+				productIds.add(Long.parseLong(part.trim()));
+			}
+		}
+		if(productIds.isEmpty()) {
+			throw new NumberFormatException("no ids");
+		}
+		return productIds;
+	}
+	
+	/**
+	 * Пишет ответ в том же формате, что и {@link ApiResponse}, строка за строкой по мере чтения курсора.
+	 * Для постраничного запроса, если страница заполнена, добавляет {@code nextAfter} — ключ следующей страницы.
+	 * Выполняется на {@code executor}: запись блокирующая, но занимает рабочий поток, а не поток Jetty,
+	 * и держит курсор не дольше, чем клиент успевает читать.
+	 */
+	private void streamAveragePrices(AsyncExchange exchange, WireFormat format, Long after, Integer limit)
+			throws IOException {
+		if(!exchange.claim()) {
+			return;
+		}
+		HttpServletResponse response = exchange.response();
+		response.setStatus(HttpServletResponse.SC_OK);
+		
+		JsonGenerator generator = format.mapper().getFactory().createGenerator(response.getOutputStream());
+		// при обрыве выдачи ответ должен остаться незавершенным, а не превратиться в валидный усеченный JSON
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+		long[] lastProductId = new long[1];
+		int count;
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("status", "success");
+			generator.writeStringField("message", "Средние цены успешно получены");
+			generator.writeArrayFieldStart("data");
+			
+			count = databaseService.streamAveragePrices(after, limit, (productId, averagePrice, offerCount,
+																	   minPrice, maxPrice, medianPrice, p90Price) -> {
+				generator.writeStartObject();
+				generator.writeNumberField("productId", productId);
+				generator.writeNumberField("averagePrice", averagePrice);
+				generator.writeNumberField("offerCount", offerCount);
+				if(!Double.isNaN(minPrice)) {
+					generator.writeNumberField("minPrice", minPrice);
+					generator.writeNumberField("maxPrice", maxPrice);
+				}
+				if(!Double.isNaN(medianPrice)) {
+					generator.writeNumberField("medianPrice", medianPrice);
+					generator.writeNumberField("p90Price", p90Price);
+				}
+				generator.writeEndObject();
+				lastProductId[0] = productId;
+			});
+		} catch(RuntimeException | IOException e) {
+			// заголовки и часть тела уже могли уйти клиенту — сменить статус нельзя, обрываем соединение;
+			// генератор не закрываем, чтобы остаток буфера не дописался в ответ
+			logger.error("Ошибка при потоковой выдаче средних цен", e);
+			exchange.abort(e);
+			return;
+		}
+		
+		try(generator) {
+			generator.writeEndArray();
+			if(limit != null && count == limit) {
+				generator.writeNumberField("nextAfter", lastProductId[0]);
+			}
+			generator.writeEndObject();
+			
+			logger.info("Получено {} средних цен", count);
+		} finally {
+			exchange.complete();
 		}
 	}
 	
+	private void respond(AsyncExchange exchange, WireFormat format, int status, ApiResponse body) {
+		exchange.respond(status, encode(format, body));
+	}
 	
-}
\ No newline at end of file
+	private static byte[] encode(WireFormat format, ApiResponse body) {
+		try {
+			return format.mapper().writeValueAsBytes(body);
+		} catch(JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private Long parseOptionalLong(String value) {
+		return value == null || value.isBlank() ? null : Long.parseLong(value.trim());
+	}
+	
+	@FunctionalInterface
+	private interface DatabaseTask {
+		void run() throws Exception;
+	}
+}
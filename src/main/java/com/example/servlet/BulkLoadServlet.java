@@ -0,0 +1,69 @@
+package com.example.servlet;
+
+import com.example.model.ApiResponse;
+import com.example.model.BulkLoadResult;
+import com.example.service.BulkLoadService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+@WebServlet("/api/prices/bulk")
+public class BulkLoadServlet extends HttpServlet {
+	private static final Logger logger = LoggerFactory.getLogger(BulkLoadServlet.class);
+	
+	private final BulkLoadService bulkLoadService;
+	private final ObjectMapper objectMapper;
+	
+	public BulkLoadServlet(BulkLoadService bulkLoadService) {
+		this.bulkLoadService = bulkLoadService;
+		this.objectMapper = new ObjectMapper();
+	}
+	
+	@Override
+	protected void doPost(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		
+		String contentType = request.getContentType() != null ? request.getContentType().toLowerCase() : "";
+		
+		try {
+			BulkLoadResult result;
+			if(contentType.startsWith("text/csv")) {
+				result = bulkLoadService.loadCsv(request.getInputStream(), Boolean.parseBoolean(request.getParameter("header")));
+			} else if(contentType.startsWith("application/json")) {
+				result = bulkLoadService.loadJson(request.getInputStream());
+			} else {
+				response.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+				objectMapper.writeValue(response.getWriter(),
+						new ApiResponse("error", "Поддерживаются text/csv и application/json", null));
+				return;
+			}
+			
+			logger.info("Массовая загрузка завершена: {}", result);
+			response.setStatus(HttpServletResponse.SC_OK);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("success", "Снимок цен загружен", result));
+			
+		} catch(IllegalArgumentException e) {
+			logger.error("Некорректные данные массовой загрузки", e);
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("error", "Некорректный запрос: " + e.getMessage(), null));
+			
+		} catch(Exception e) {
+			logger.error("Ошибка при массовой загрузке цен", e);
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("error", "Внутренняя ошибка сервера: " + e.getMessage(), null));
+		}
+	}
+}
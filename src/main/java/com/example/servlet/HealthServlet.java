@@ -0,0 +1,63 @@
+package com.example.servlet;
+
+import com.example.model.ApiResponse;
+import com.example.service.Readiness;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Пробы для оркестратора. {@code /health/live} — процесс жив; 503 только если шаг старта упал и помочь
+ * может лишь перезапуск. {@code /health/ready} — 200, когда миграции применены, пулы соединений открыты,
+ * журнал проигран и индекс цен заполнен; до этого 503 с состоянием шагов.
+ */
+@WebServlet("/health/*")
+public class HealthServlet extends HttpServlet {
+	private final Readiness readiness;
+	private final ObjectMapper objectMapper;
+	
+	public HealthServlet(Readiness readiness) {
+		this.readiness = readiness;
+		this.objectMapper = new ObjectMapper();
+	}
+	
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-store");
+		
+		String pathInfo = request.getPathInfo();
+		if("/live".equals(pathInfo)) {
+			boolean alive = !readiness.isFailed();
+			response.setStatus(alive ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			objectMapper.writeValue(response.getWriter(), alive
+					? new ApiResponse("success", "Сервис работает", null)
+					: new ApiResponse("error", "Шаг запуска завершился ошибкой", readiness.getSteps()));
+			return;
+		}
+		if("/ready".equals(pathInfo)) {
+			Map<String, Object> state = new LinkedHashMap<>();
+			state.put("steps", readiness.getSteps());
+			state.put("startupMillis", readiness.getStartupMillis());
+			boolean ready = readiness.isReady();
+			response.setStatus(ready ? HttpServletResponse.SC_OK : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			objectMapper.writeValue(response.getWriter(), ready
+					? new ApiResponse("success", "Сервис готов", state)
+					: new ApiResponse("error", "Сервис запускается", state));
+			return;
+		}
+		
+		response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+		objectMapper.writeValue(response.getWriter(), new ApiResponse("error", "Неизвестная проба: " + pathInfo, null));
+	}
+}
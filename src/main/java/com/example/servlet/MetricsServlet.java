@@ -0,0 +1,30 @@
+package com.example.servlet;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+	private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	private final PrometheusMeterRegistry registry;
+	
+	public MetricsServlet(PrometheusMeterRegistry registry) {
+		this.registry = registry;
+	}
+	
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(PROMETHEUS_CONTENT_TYPE);
+		registry.scrape(response.getWriter());
+	}
+}
@@ -0,0 +1,96 @@
+package com.example.servlet;
+
+import com.example.config.ApplicationConfig;
+import com.example.model.ApiResponse;
+import com.example.model.PriceHistory;
+import com.example.service.DatabaseService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * {@code GET /api/prices/history/{productId}?days=7} или {@code ?from=...&to=...} (ISO-8601, UTC):
+ * средняя, минимальная и максимальная цена продукта за окно и разбивка по дням.
+ */
+@WebServlet("/api/prices/history/*")
+public class PriceHistoryServlet extends HttpServlet {
+	private static final Logger logger = LoggerFactory.getLogger(PriceHistoryServlet.class);
+	
+	private final DatabaseService databaseService;
+	private final ObjectMapper objectMapper;
+	private final long maxDays;
+	
+	public PriceHistoryServlet(DatabaseService databaseService, ApplicationConfig config) {
+		this.databaseService = databaseService;
+		this.objectMapper = new ObjectMapper();
+		this.maxDays = config.getLong("history.max-days", 366);
+	}
+	
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		
+		if(!databaseService.isHistoryEnabled()) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("error", "История цен отключена", null));
+			return;
+		}
+		
+		long productId;
+		Instant from;
+		Instant to;
+		try {
+			String pathInfo = request.getPathInfo();
+			if(pathInfo == null || pathInfo.length() < 2) {
+				throw new IllegalArgumentException("ID продукта не указан");
+			}
+			productId = Long.parseLong(pathInfo.substring(1));
+			
+			String toParam = request.getParameter("to");
+			to = toParam != null ? Instant.parse(toParam) : Instant.now();
+			String fromParam = request.getParameter("from");
+			if(fromParam != null) {
+				from = Instant.parse(fromParam);
+			} else {
+				String daysParam = request.getParameter("days");
+				from = to.minus(Duration.ofDays(daysParam != null ? Long.parseLong(daysParam) : 7));
+			}
+			if(!from.isBefore(to) || Duration.between(from, to).toDays() > maxDays) {
+				throw new IllegalArgumentException("Окно должно быть непустым и не длиннее " + maxDays + " дней");
+			}
+		} catch(IllegalArgumentException | DateTimeParseException | ArithmeticException e) {
+			logger.error("Некорректный запрос истории цен: {}", e.getMessage());
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("error", "Некорректный запрос истории цен: " + e.getMessage(), null));
+			return;
+		}
+		
+		try {
+			PriceHistory history = databaseService.getPriceHistory(productId, from, to);
+			logger.info("Получена история цен продукта {}: {} наблюдений", productId, history.getSamples());
+			response.setStatus(HttpServletResponse.SC_OK);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("success", "История цен успешно получена", history));
+		} catch(Exception e) {
+			logger.error("Ошибка при получении истории цен", e);
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			objectMapper.writeValue(response.getWriter(),
+					new ApiResponse("error", "Внутренняя ошибка сервера: " + e.getMessage(), null));
+		}
+	}
+}
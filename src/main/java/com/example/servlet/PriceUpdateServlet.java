@@ -1,9 +1,14 @@
 package com.example.servlet;
 
+import com.example.config.ApplicationConfig;
 import com.example.model.PriceUpdate;
+import com.example.service.IdempotencyRegistry;
+import com.example.service.IngestionRejectedException;
 import com.example.service.PriceProcessingService;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -13,58 +18,302 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-@WebServlet("/api/prices/update")
+/**
+ * Прием обновлений цен в асинхронном режиме сервлета: поток Jetty освобождается на время чтения тела
+ * и записи в журнал, ответ отправляется из future приема {@link PriceProcessingService#submit}.
+ * Тело и ответ кодируются в {@link WireFormat}, выбранном по {@code Content-Type} и {@code Accept}.
+ */
+@WebServlet(value = "/api/prices/update", asyncSupported = true)
 public class PriceUpdateServlet extends HttpServlet {
 	private static final Logger logger = LoggerFactory.getLogger(PriceUpdateServlet.class);
+	private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+	// пределы колонок manufacturers.name VARCHAR(255) и price DECIMAL(10,2): строка за ними откатила бы
+	// весь слитый батч полосы вместе с уже принятыми обновлениями других клиентов
+	private static final int MAX_MANUFACTURER_NAME_LENGTH = 255;
+	private static final double MAX_PRICE = 99_999_999.99;
+	private static final TypeReference<List<PriceUpdate>> PRICE_UPDATES = new TypeReference<>() {
+	};
 	
 	private final PriceProcessingService processingService;
-	private final ObjectMapper objectMapper;
+	private final int streamChunkSize;
+	private final long maxRequestBytes;
+	private final long asyncTimeoutMillis;
+	private final Map<WireFormat, byte[]> timeoutBodies = new EnumMap<>(WireFormat.class);
+	private final DistributionSummary requestSizeSummary;
+	private final IdempotencyRegistry idempotencyRegistry;
 	
-	public PriceUpdateServlet(PriceProcessingService processingService) {
+	public PriceUpdateServlet(PriceProcessingService processingService, ApplicationConfig config) {
 		this.processingService = processingService;
-		this.objectMapper = new ObjectMapper();
+		this.streamChunkSize = config.getInt("ingest.stream.chunk-size", 1000);
+		this.maxRequestBytes = config.getLong("ingest.max-request-bytes", 64L * 1024 * 1024);
+		this.asyncTimeoutMillis = config.getLong("server.async-timeout-ms", 30_000);
+		this.requestSizeSummary = DistributionSummary.builder("price.ingest.request.size")
+										  .description("Price updates accepted per POST /api/prices/update")
+										  .baseUnit("updates")
+										  .publishPercentileHistogram()
+										  .register(Metrics.globalRegistry);
+		this.idempotencyRegistry = new IdempotencyRegistry(
+				config.getInt("ingest.idempotency.max-keys", 100_000),
+				config.getLong("ingest.idempotency.ttl-ms", 3_600_000));
+		for(WireFormat format : WireFormat.values()) {
+			timeoutBodies.put(format, encode(format, new ApiResponse("error", "Запрос не обработан вовремя, повторите позже", null)));
+		}
 	}
 	
 	@Override
 	protected void doPost(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		response.setContentType("application/json");
-		response.setCharacterEncoding("UTF-8");
+		WireFormat requestFormat = WireFormat.ofContentType(request.getContentType());
+		WireFormat responseFormat = WireFormat.negotiate(request.getHeader("Accept"),
+				requestFormat != null ? requestFormat : WireFormat.JSON);
+		responseFormat.apply(response);
+		
+		AsyncExchange exchange = AsyncExchange.start(request, response, asyncTimeoutMillis, timeoutBodies.get(responseFormat));
+		
+		if(requestFormat == null) {
+			send(exchange, responseFormat, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, new ApiResponse("error",
+					"Поддерживаются application/json, application/x-jackson-smile и application/cbor", null), null);
+			return;
+		}
+		
+		String idempotencyKey = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+		if(idempotencyKey != null) {
+			if(idempotencyKey.isBlank() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+				send(exchange, responseFormat, HttpServletResponse.SC_BAD_REQUEST, new ApiResponse("error",
+						"Idempotency-Key должен быть непустым и не длиннее " + MAX_IDEMPOTENCY_KEY_LENGTH + " символов", null), null);
+				return;
+			}
+			IdempotencyRegistry.StoredResponse stored = idempotencyRegistry.reserve(idempotencyKey);
+			if(stored == IdempotencyRegistry.IN_PROGRESS) {
+				logger.warn("Повтор запроса {} до завершения исходного", idempotencyKey);
+				send(exchange, responseFormat, HttpServletResponse.SC_CONFLICT,
+						new ApiResponse("error", "Запрос с этим Idempotency-Key еще обрабатывается", null), null);
+				return;
+			}
+			if(stored != null) {
+				logger.info("Повтор запроса {}, возвращен исходный ответ", idempotencyKey);
+				response.setHeader("Idempotent-Replayed", "true");
+				response.setContentType(stored.contentType());
+				exchange.respond(stored.status(), stored.body());
+				return;
+			}
+			// таймаут и обрыв соединения до ответа не должны оставить ключ занятым навсегда
+			exchange.onAbandoned(() -> idempotencyRegistry.release(idempotencyKey));
+		}
 		
 		try {
-			List<PriceUpdate> priceUpdates = objectMapper.readValue(
-					request.getInputStream(),
-					new TypeReference<List<PriceUpdate>>() {
-					}
-			);
+			receive(exchange, requestFormat, responseFormat, idempotencyKey);
+		} catch(IOException | RuntimeException e) {
+			logger.error("Не удалось начать чтение тела запроса", e);
+			send(exchange, responseFormat, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+					new ApiResponse("error", "Не удалось принять обновления цен", null), idempotencyKey);
+		}
+	}
+	
+	private void receive(AsyncExchange exchange, WireFormat requestFormat, WireFormat responseFormat,
+						 String idempotencyKey) throws IOException {
+		if("stream".equals(exchange.request().getParameter("mode"))) {
+			if(!requestFormat.mapper().getFactory().canParseAsync()) {
+				send(exchange, responseFormat, HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, new ApiResponse("error",
+						"Потоковый прием поддерживает application/json и application/x-jackson-smile", null), idempotencyKey);
+				return;
+			}
+			exchange.read(new StreamIngestion(exchange, requestFormat, responseFormat, idempotencyKey));
+			return;
+		}
+		
+		exchange.readBody(maxRequestBytes).whenComplete((body, throwable) -> {
+			if(throwable != null) {
+				Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+				if(cause instanceof AsyncExchange.RequestTooLargeException) {
+					send(exchange, responseFormat, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+							new ApiResponse("error", cause.getMessage(), null), idempotencyKey);
+				} else {
+					sendReadFailure(exchange, responseFormat, cause, idempotencyKey);
+				}
+				return;
+			}
+			try {
+				processBatch(exchange, requestFormat, responseFormat, body, idempotencyKey);
+			} catch(RuntimeException e) {
+				logger.error("Ошибка при обработке запроса на обновление цен", e);
+				send(exchange, responseFormat, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						new ApiResponse("error", "Не удалось принять обновления цен", null), idempotencyKey);
+			}
+		});
+	}
+	
+	private void processBatch(AsyncExchange exchange, WireFormat requestFormat, WireFormat responseFormat, byte[] body,
+							  String idempotencyKey) {
+		PriceProcessingService.Submission submission;
+		int size;
+		try {
+			List<PriceUpdate> priceUpdates = requestFormat.mapper().readValue(body, PRICE_UPDATES);
 			
 			logger.info("Получено {} обновлений цен", priceUpdates.size());
 			
 			validatePriceUpdates(priceUpdates);
 			
-			CompletableFuture<Void> processingFuture = processingService.processPriceUpdates(priceUpdates);
+			submission = processingService.submit(priceUpdates, false);
+			size = priceUpdates.size();
+			requestSizeSummary.record(size);
+			
+		} catch(IngestionRejectedException e) {
+			exchange.response().setIntHeader("Retry-After", e.getRetryAfterSeconds());
+			send(exchange, responseFormat, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					new ApiResponse("error", "Сервис перегружен, повторите запрос позже", null), idempotencyKey);
+			return;
 			
-			response.setStatus(HttpServletResponse.SC_ACCEPTED);
-			objectMapper.writeValue(response.getWriter(),
-					new ApiResponse("success", "Обновления цен приняты в обработку", priceUpdates.size()));
+		} catch(Exception e) {
+			logger.error("Ошибка при обработке запроса на обновление цен", e);
+			send(exchange, responseFormat, HttpServletResponse.SC_BAD_REQUEST,
+					new ApiResponse("error", "Некорректный запрос: " + e.getMessage(), null), idempotencyKey);
+			return;
+		}
+		
+		submission.accepted().whenComplete((result, throwable) -> {
+			if(throwable != null) {
+				logger.error("Не удалось записать обновления цен в журнал", throwable);
+				send(exchange, responseFormat, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						new ApiResponse("error", "Не удалось принять обновления цен", null), idempotencyKey);
+			} else {
+				send(exchange, responseFormat, HttpServletResponse.SC_ACCEPTED,
+						new ApiResponse("success", "Обновления цен приняты в обработку", size), idempotencyKey);
+			}
+		});
+		
+		submission.completed().whenComplete((result, throwable) -> {
+			if(throwable != null) {
+				logger.error("Ошибка при обработке обновлений цен", throwable);
+			} else {
+				logger.info("Обработка обновлений цен успешно завершена");
+			}
+		});
+	}
+	
+	/**
+	 * Потоковый прием ({@code ?mode=stream}): тело читается без блокировки и разбирается
+	 * {@link PriceUpdateStreamParser} по мере поступления; элементы массива проверяются по одному и уходят в обработку
+	 * чанками по {@code ingest.stream.chunk-size}, не дожидаясь конца загрузки. Память ограничена размером чанка.
+	 * Поток Jetty занимается только при заполненной очереди: отправка чанка ждет места, и чтение тела
+	 * приостанавливается. Чанки, отправленные до некорректного элемента, остаются принятыми — их число
+	 * есть в сообщении об ошибке.
+	 */
+	private final class StreamIngestion implements AsyncExchange.BodyConsumer {
+		private final AsyncExchange exchange;
+		private final WireFormat responseFormat;
+		private final String idempotencyKey;
+		private final PriceUpdateStreamParser parser;
+		private final List<CompletableFuture<Void>> acceptedChunks = new ArrayList<>();
+		
+		StreamIngestion(AsyncExchange exchange, WireFormat requestFormat, WireFormat responseFormat,
+						String idempotencyKey) throws IOException {
+			this.exchange = exchange;
+			this.responseFormat = responseFormat;
+			this.idempotencyKey = idempotencyKey;
+			this.parser = new PriceUpdateStreamParser(requestFormat.mapper(), streamChunkSize, this :: submitChunk);
+		}
+		
+		@Override
+		public void onData(byte[] buffer, int length) throws IOException {
+			parser.feed(buffer, 0, length);
+		}
+		
+		@Override
+		public void onEnd() throws IOException {
+			parser.end();
 			
-			processingFuture.whenComplete((result, throwable) -> {
+			int total = parser.getAccepted();
+			CompletableFuture.allOf(acceptedChunks.toArray(new CompletableFuture[0])).whenComplete((result, throwable) -> {
 				if(throwable != null) {
-					logger.error("Ошибка при обработке обновлений цен", throwable);
-				} else {
-					logger.info("Обработка обновлений цен успешно завершена");
+					logger.error("Не удалось записать обновления цен в журнал", throwable);
+					send(exchange, responseFormat, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+							new ApiResponse("error", "Не удалось принять обновления цен", null), idempotencyKey);
+					return;
 				}
+				requestSizeSummary.record(total);
+				logger.info("Потоково получено {} обновлений цен", total);
+				send(exchange, responseFormat, HttpServletResponse.SC_ACCEPTED,
+						new ApiResponse("success", "Обновления цен приняты в обработку", total), idempotencyKey);
 			});
-			
-		} catch(Exception e) {
-			logger.error("Ошибка при обработке запроса на обновление цен", e);
-			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-			objectMapper.writeValue(response.getWriter(),
-					new ApiResponse("error", "Некорректный запрос: " + e.getMessage(), null));
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			int accepted = parser.getAccepted();
+			if(throwable instanceof UncheckedIOException) {
+				logger.error("Не удалось записать обновления цен в журнал", throwable);
+				send(exchange, responseFormat, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						new ApiResponse("error", "Не удалось принять обновления цен, принято: " + accepted, accepted), idempotencyKey);
+			} else if(throwable instanceof IngestionRejectedException rejected) {
+				exchange.response().setIntHeader("Retry-After", rejected.getRetryAfterSeconds());
+				send(exchange, responseFormat, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+						new ApiResponse("error", "Сервис перегружен, принято: " + accepted, accepted), idempotencyKey);
+			} else if(throwable instanceof IOException && !(throwable instanceof JsonProcessingException)) {
+				sendReadFailure(exchange, responseFormat, throwable, idempotencyKey);
+			} else {
+				logger.error("Ошибка при потоковом приеме обновлений цен, принято {}", accepted, throwable);
+				send(exchange, responseFormat, HttpServletResponse.SC_BAD_REQUEST,
+						new ApiResponse("error", "Некорректный запрос: " + throwable.getMessage() + ", принято: " + accepted, accepted),
+						idempotencyKey);
+			}
+		}
+		
+		private void submitChunk(List<PriceUpdate> chunk) {
+			PriceProcessingService.Submission submission = processingService.submit(chunk, true);
+			acceptedChunks.add(submission.accepted());
+			submission.completed().whenComplete((result, throwable) -> {
+				if(throwable != null) {
+					logger.error("Ошибка при обработке чанка из {} обновлений цен", chunk.size(), throwable);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Отправляет ответ и, если задан ключ идемпотентности, сохраняет его для повторов. Ответы 202 и 400 окончательные;
+	 * после 503 и 500 резервирование снимается, и повтор с тем же ключом обрабатывается заново. Все пути после
+	 * резервирования ключа заканчиваются здесь или в {@link #sendReadFailure}; таймаут снимает резервирование сам.
+	 */
+	private void send(AsyncExchange exchange, WireFormat format, int status, ApiResponse body, String idempotencyKey) {
+		byte[] encoded = encode(format, body);
+		if(idempotencyKey != null) {
+			if(status == HttpServletResponse.SC_ACCEPTED || status == HttpServletResponse.SC_BAD_REQUEST) {
+				idempotencyRegistry.complete(idempotencyKey, status, exchange.response().getContentType(), encoded);
+			} else {
+				idempotencyRegistry.release(idempotencyKey);
+			}
+		}
+		exchange.respond(status, encoded);
+	}
+	
+	/**
+	 * Тело не дочитано (обрыв соединения, ошибка чтения): ответ не окончательный, ключ освобождается для повтора.
+	 */
+	private void sendReadFailure(AsyncExchange exchange, WireFormat format, Throwable cause, String idempotencyKey) {
+		logger.warn("Не удалось прочитать тело запроса", cause);
+		if(idempotencyKey != null) {
+			idempotencyRegistry.release(idempotencyKey);
+		}
+		send(exchange, format, HttpServletResponse.SC_BAD_REQUEST,
+				new ApiResponse("error", "Не удалось прочитать тело запроса", null), null);
+	}
+	
+	private static byte[] encode(WireFormat format, ApiResponse body) {
+		try {
+			return format.mapper().writeValueAsBytes(body);
+		} catch(JsonProcessingException e) {
+			throw new IllegalStateException(e);
 		}
 	}
 	
@@ -74,15 +323,29 @@ public class PriceUpdateServlet extends HttpServlet {
 		}
 		
 		for(PriceUpdate update : priceUpdates) {
-			if(update.getProductId() == null) {
-				throw new IllegalArgumentException("ID продукта не может быть пустым");
-			}
-			if(update.getManufacturerName() == null || update.getManufacturerName().trim().isEmpty()) {
-				throw new IllegalArgumentException("Название производителя не может быть пустым");
-			}
-			if(update.getPrice() == null || update.getPrice() <= 0) {
-				throw new IllegalArgumentException("Цена должна быть положительным числом");
-			}
+			validatePriceUpdate(update);
+		}
+	}
+	
+	/**
+	 * Проверка одного обновления; общая для всех путей приема, в том числе WebSocket.
+	 */
+	public static void validatePriceUpdate(PriceUpdate update) {
+		if(update.getProductId() == null) {
+			throw new IllegalArgumentException("ID продукта не может быть пустым");
+		}
+		String manufacturerName = update.getManufacturerName();
+		if(manufacturerName == null || manufacturerName.trim().isEmpty()) {
+			throw new IllegalArgumentException("Название производителя не может быть пустым");
+		}
+		if(manufacturerName.codePointCount(0, manufacturerName.length()) > MAX_MANUFACTURER_NAME_LENGTH) {
+			throw new IllegalArgumentException("Название производителя не может быть длиннее " + MAX_MANUFACTURER_NAME_LENGTH + " символов");
+		}
+		if(update.getPrice() == null || !(update.getPrice() > 0)) {
+			throw new IllegalArgumentException("Цена должна быть положительным числом");
+		}
+		if(update.getPrice() > MAX_PRICE) {
+			throw new IllegalArgumentException("Цена не может быть больше " + MAX_PRICE);
 		}
 	}
 	
@@ -109,4 +372,4 @@ public class PriceUpdateServlet extends HttpServlet {
 			return data;
 		}
 	}
-}
\ No newline at end of file
+}
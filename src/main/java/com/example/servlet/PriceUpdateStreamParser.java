@@ -0,0 +1,145 @@
+package com.example.servlet;
+
+import com.example.model.PriceUpdate;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Неблокирующий разбор массива обновлений цен для потокового приема: байты подаются частями в любых границах,
+ * элементы проверяются по одному и передаются получателю чанками по {@code chunkSize}. Элемент массива
+ * собирается в {@link TokenBuffer} и превращается в {@link PriceUpdate}, когда закрывается его объект.
+ * Некорректный элемент прерывает разбор {@link IllegalArgumentException}; чанки, переданные до него,
+ * остаются переданными.
+ */
+final class PriceUpdateStreamParser {
+	private final ObjectMapper mapper;
+	private final int chunkSize;
+	private final Consumer<List<PriceUpdate>> chunkConsumer;
+	private final JsonParser parser;
+	private final ByteArrayFeeder feeder;
+	
+	private List<PriceUpdate> chunk;
+	private TokenBuffer element;
+	private int depth;
+	private int position;
+	private int accepted;
+	private boolean arrayStarted;
+	private boolean arrayClosed;
+	
+	/**
+	 * @param chunkConsumer получает заполненный чанк; исключение из него прерывает разбор, а чанк не считается принятым
+	 */
+	PriceUpdateStreamParser(ObjectMapper mapper, int chunkSize, Consumer<List<PriceUpdate>> chunkConsumer) throws IOException {
+		this.mapper = mapper;
+		this.chunkSize = chunkSize;
+		this.chunkConsumer = chunkConsumer;
+		this.parser = mapper.getFactory().createNonBlockingByteArrayParser();
+		this.feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+		this.chunk = new ArrayList<>(chunkSize);
+	}
+	
+	/**
+	 * Разбирает очередную часть тела; буфер после возврата можно переиспользовать.
+	 */
+	void feed(byte[] buffer, int offset, int length) throws IOException {
+		feeder.feedInput(buffer, offset, offset + length);
+		drainTokens();
+	}
+	
+	/**
+	 * Конец тела: проверяет, что массив закрыт и не пуст, и передает последний неполный чанк.
+	 */
+	void end() throws IOException {
+		feeder.endOfInput();
+		drainTokens();
+		if(!arrayClosed) {
+			throw new IllegalArgumentException("Ожидается JSON-массив обновлений цен");
+		}
+		if(!chunk.isEmpty()) {
+			submitChunk();
+		}
+		if(accepted == 0) {
+			throw new IllegalArgumentException("Список обновлений цен не может быть пустым");
+		}
+	}
+	
+	/**
+	 * Число обновлений в чанках, которые получатель принял.
+	 */
+	int getAccepted() {
+		return accepted;
+	}
+	
+	/**
+	 * Разбирает все токены, доступные в уже переданных байтах.
+	 */
+	private void drainTokens() throws IOException {
+		JsonToken token;
+		while((token = parser.nextToken()) != JsonToken.NOT_AVAILABLE) {
+			if(token == null) {
+				return;
+			}
+			if(!arrayStarted) {
+				if(token != JsonToken.START_ARRAY) {
+					throw new IllegalArgumentException("Ожидается JSON-массив обновлений цен");
+				}
+				arrayStarted = true;
+				continue;
+			}
+			if(arrayClosed) {
+				throw new IllegalArgumentException("Лишние данные после JSON-массива");
+			}
+			
+			if(element == null) {
+				if(token == JsonToken.END_ARRAY) {
+					arrayClosed = true;
+					continue;
+				}
+				if(token != JsonToken.START_OBJECT) {
+					throw new IllegalArgumentException("Элемент #" + position + " должен быть JSON-объектом");
+				}
+				element = new TokenBuffer(parser);
+			}
+			
+			element.copyCurrentEvent(parser);
+			if(token.isStructStart()) {
+				depth++;
+			} else if(token.isStructEnd()) {
+				depth--;
+			}
+			if(depth == 0) {
+				addElement(mapper.readValue(element.asParser(), PriceUpdate.class));
+				element = null;
+			}
+		}
+	}
+	
+	private void addElement(PriceUpdate update) {
+		try {
+			PriceUpdateServlet.validatePriceUpdate(update);
+		} catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException("Элемент #" + position + ": " + e.getMessage(), e);
+		}
+		position++;
+		
+		chunk.add(update);
+		if(chunk.size() == chunkSize) {
+			submitChunk();
+		}
+	}
+	
+	private void submitChunk() {
+		List<PriceUpdate> submitted = chunk;
+		chunkConsumer.accept(submitted);
+		accepted += submitted.size();
+		chunk = new ArrayList<>(chunkSize);
+	}
+}
@@ -0,0 +1,104 @@
+package com.example.servlet;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletMapping;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Гистограмма латентности {@code http.server.requests} по методу, шаблону пути сервлета и статусу.
+ * Для асинхронных запросов замер идет до завершения {@link jakarta.servlet.AsyncContext}, а не до конца диспетчеризации.
+ */
+public class RequestMetricsFilter extends HttpFilter {
+	private final MeterRegistry registry;
+	
+	public RequestMetricsFilter(MeterRegistry registry) {
+		this.registry = registry;
+	}
+	
+	@Override
+	protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		
+		Timer.Sample sample = Timer.start(registry);
+		String method = request.getMethod();
+		String uri = uriTemplate(request);
+		boolean async = false;
+		try {
+			chain.doFilter(request, response);
+			async = request.isAsyncStarted();
+		} finally {
+			if(!async || !stopOnAsyncEnd(request, response, sample, method, uri)) {
+				stop(sample, method, uri, response.getStatus());
+			}
+		}
+	}
+	
+	/**
+	 * Асинхронный запрос завершается после выхода из фильтра: время и статус берутся по событию
+	 * {@link AsyncListener}. Возвращает false, если обмен уже завершился и слушатель не добавлен.
+	 */
+	private boolean stopOnAsyncEnd(HttpServletRequest request, HttpServletResponse response, Timer.Sample sample,
+								   String method, String uri) {
+		AtomicBoolean stopped = new AtomicBoolean();
+		AsyncListener listener = new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				stopOnce();
+			}
+			
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				stopOnce();
+			}
+			
+			@Override
+			public void onError(AsyncEvent event) {
+				stopOnce();
+			}
+			
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+			
+			private void stopOnce() {
+				if(stopped.compareAndSet(false, true)) {
+					stop(sample, method, uri, response.getStatus());
+				}
+			}
+		};
+		try {
+			request.getAsyncContext().addListener(listener);
+			return true;
+		} catch(IllegalStateException e) {
+			// обмен завершен другим потоком между isAsyncStarted() и addListener()
+			return false;
+		}
+	}
+	
+	private void stop(Timer.Sample sample, String method, String uri, int status) {
+		sample.stop(Timer.builder("http.server.requests")
+							.tag("method", method)
+							.tag("uri", uri)
+							.tag("status", Integer.toString(status))
+							.publishPercentileHistogram()
+							.register(registry));
+	}
+	
+	// шаблон маппинга, а не фактический путь: /api/prices/average/42 не должен порождать отдельную серию
+	private String uriTemplate(HttpServletRequest request) {
+		HttpServletMapping mapping = request.getHttpServletMapping();
+		return mapping != null && mapping.getPattern() != null && !mapping.getPattern().isEmpty()
+					   ? mapping.getPattern()
+					   : "UNKNOWN";
+	}
+}
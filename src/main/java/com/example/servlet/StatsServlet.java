@@ -0,0 +1,66 @@
+package com.example.servlet;
+
+import com.example.model.ApiResponse;
+import com.example.service.AveragePriceCache;
+import com.example.service.DatabaseService;
+import com.example.service.PriceProcessingService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@WebServlet("/api/stats")
+public class StatsServlet extends HttpServlet {
+	private final DatabaseService databaseService;
+	private final PriceProcessingService processingService;
+	private final ObjectMapper objectMapper;
+	
+	public StatsServlet(DatabaseService databaseService, PriceProcessingService processingService) {
+		this.databaseService = databaseService;
+		this.processingService = processingService;
+		this.objectMapper = new ObjectMapper();
+	}
+	
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("averagePriceCache", cacheStats(databaseService.getAveragePriceCache()));
+		stats.put("ingestion", ingestionStats());
+		stats.put("statisticsBacklog", databaseService.getStatisticsBacklog());
+		
+		response.setStatus(HttpServletResponse.SC_OK);
+		objectMapper.writeValue(response.getWriter(), new ApiResponse("success", "Статистика сервиса", stats));
+	}
+	
+	private Map<String, Object> ingestionStats() {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("queueCapacity", processingService.getQueueCapacity());
+		stats.put("queueDepth", processingService.getQueueDepth());
+		stats.put("rejected", processingService.getRejectedCount());
+		stats.put("failed", processingService.getFailedCount());
+		stats.put("averageWaitMillis", processingService.getAverageWaitMillis());
+		stats.put("maxWaitMillis", processingService.getMaxWaitMillis());
+		stats.put("unchangedSkipped", (long) databaseService.getUnchangedCount());
+		return stats;
+	}
+	
+	private Map<String, Object> cacheStats(AveragePriceCache cache) {
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("size", cache.size());
+		stats.put("hits", cache.getHitCount());
+		stats.put("misses", cache.getMissCount());
+		stats.put("evictions", cache.getEvictionCount());
+		return stats;
+	}
+}
@@ -0,0 +1,86 @@
+package com.example.servlet;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.util.Locale;
+
+/**
+ * Кодировка тела запроса и ответа. JSON остается форматом по умолчанию; Smile и CBOR — двоичные представления
+ * той же модели Jackson: числа без текстовой формы, повторяющиеся имена полей и короткие строки (Smile) кодируются
+ * обратными ссылками, поэтому {@code manufacturer_name} из небольшого словаря передается почти бесплатно.
+ */
+enum WireFormat {
+	JSON("application/json", new ObjectMapper()),
+	SMILE("application/x-jackson-smile", new SmileMapper()),
+	CBOR("application/cbor", new CBORMapper());
+	
+	private final String mediaType;
+	private final ObjectMapper mapper;
+	
+	WireFormat(String mediaType, ObjectMapper mapper) {
+		this.mediaType = mediaType;
+		this.mapper = mapper;
+	}
+	
+	String mediaType() {
+		return mediaType;
+	}
+	
+	ObjectMapper mapper() {
+		return mapper;
+	}
+	
+	boolean isBinary() {
+		return this != JSON;
+	}
+	
+	/**
+	 * Формат тела запроса по {@code Content-Type}; без заголовка — JSON, неизвестный тип — {@code null} (415).
+	 */
+	static WireFormat ofContentType(String contentType) {
+		if(contentType == null || contentType.isBlank()) {
+			return JSON;
+		}
+		return find(contentType);
+	}
+	
+	/**
+	 * Формат ответа по {@code Accept}: первый из перечисленных поддерживаемых типов, иначе {@code fallback}.
+	 * Веса {@code q} не учитываются — клиенты двоичных форматов указывают ровно один тип.
+	 */
+	static WireFormat negotiate(String accept, WireFormat fallback) {
+		if(accept != null) {
+			for(String range : accept.split(",")) {
+				WireFormat format = find(range);
+				if(format != null) {
+					return format;
+				}
+			}
+		}
+		return fallback;
+	}
+	
+	/**
+	 * Выставляет тип ответа; кодировка символов имеет смысл только для JSON.
+	 */
+	void apply(HttpServletResponse response) {
+		response.setContentType(mediaType);
+		if(this == JSON) {
+			response.setCharacterEncoding("UTF-8");
+		}
+	}
+	
+	private static WireFormat find(String mediaRange) {
+		int parameters = mediaRange.indexOf(';');
+		String type = (parameters >= 0 ? mediaRange.substring(0, parameters) : mediaRange).trim().toLowerCase(Locale.ROOT);
+		for(WireFormat format : values()) {
+			if(format.mediaType.equals(type)) {
+				return format;
+			}
+		}
+		return null;
+	}
+}
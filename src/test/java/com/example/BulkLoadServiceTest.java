@@ -0,0 +1,150 @@
+package com.example;
+
+import com.example.model.AveragePrice;
+import com.example.model.BulkLoadResult;
+import com.example.model.PriceUpdate;
+import com.example.service.BulkLoadService;
+import com.example.service.DatabaseService;
+import com.example.service.PriceProcessingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Массовая загрузка против живой базы, как и {@link PriceServiceTest}; продукты с 1000, чтобы не пересекаться
+ * с его данными.
+ */
+public class BulkLoadServiceTest {
+	
+	private DatabaseService databaseService;
+	private PriceProcessingService processingService;
+	private BulkLoadService bulkLoadService;
+	
+	@BeforeEach
+	void setUp() {
+		databaseService = new DatabaseService();
+		databaseService.runMigrations();
+		databaseService.startBackgroundTasks();
+		processingService = new PriceProcessingService(databaseService);
+		bulkLoadService = new BulkLoadService(databaseService);
+	}
+	
+	@AfterEach
+	void tearDown() {
+		if(processingService != null) {
+			processingService.shutdown();
+		}
+		if(databaseService != null) {
+			databaseService.close();
+		}
+	}
+	
+	@Test
+	void testCsvLoad() {
+		BulkLoadResult result = bulkLoadService.loadCsv(stream("""
+				product_id,manufacturer_name,price
+				1001,Производитель A,100.00
+				1001,"Производитель B, филиал",200.00
+				1002,Производитель A,50.00
+				"""), true);
+		
+		assertEquals(3, result.getRowsLoaded());
+		assertEquals(2, result.getProductsRebuilt());
+		
+		AveragePrice avgPrice1001 = databaseService.getAveragePrice(1001L);
+		assertEquals(150.0, avgPrice1001.getAveragePrice(), 0.01);
+		assertEquals(2, avgPrice1001.getOfferCount());
+		assertEquals(50.0, databaseService.getAveragePrice(1002L).getAveragePrice(), 0.01);
+	}
+	
+	@Test
+	void testJsonLoadKeepsLastPricePerManufacturer() {
+		BulkLoadResult result = bulkLoadService.loadJson(stream("""
+				[{"product_id": 1003, "manufacturer_name": "Производитель A", "price": 100.0},
+				 {"product_id": 1003, "manufacturer_name": "Производитель B", "price": 100.0},
+				 {"product_id": 1003, "manufacturer_name": "Производитель A", "price": 300.0}]
+				"""));
+		
+		assertEquals(3, result.getRowsLoaded());
+		
+		AveragePrice avgPrice1003 = databaseService.getAveragePrice(1003L);
+		assertEquals(200.0, avgPrice1003.getAveragePrice(), 0.01);
+		assertEquals(2, avgPrice1003.getOfferCount());
+	}
+	
+	@Test
+	void testLoadOverExistingRows() {
+		processingService.processPriceUpdates(Arrays.asList(
+				new PriceUpdate(1004L, "Производитель A", 100.0),
+				new PriceUpdate(1004L, "Производитель B", 200.0),
+				new PriceUpdate(1004L, "Производитель C", 300.0)
+		)).join();
+		
+		bulkLoadService.loadCsv(stream("""
+				1004,Производитель A,400.00
+				1004,Производитель D,500.00
+				"""), false);
+		
+		// A заменен, B и C остались, D добавлен
+		AveragePrice avgPrice1004 = databaseService.getAveragePrice(1004L);
+		assertEquals(350.0, avgPrice1004.getAveragePrice(), 0.01);
+		assertEquals(4, avgPrice1004.getOfferCount());
+	}
+	
+	@Test
+	void testInvalidRowRollsBackWholeLoad() {
+		processingService.processPriceUpdates(List.of(new PriceUpdate(1005L, "Производитель A", 100.0))).join();
+		
+		assertThrows(IllegalArgumentException.class, () -> bulkLoadService.loadCsv(stream("""
+				1005,Производитель A,900.00
+				1005,Производитель B,-1.00
+				"""), false));
+		
+		AveragePrice avgPrice1005 = databaseService.getAveragePrice(1005L);
+		assertEquals(100.0, avgPrice1005.getAveragePrice(), 0.01);
+		assertEquals(1, avgPrice1005.getOfferCount());
+	}
+	
+	@Test
+	void testLoadConcurrentWithIncrementalUpdates() {
+		// производители загрузки и инкрементальной записи не пересекаются: итог не зависит от порядка commit'ов
+		StringBuilder csv = new StringBuilder();
+		double expectedSum = 0;
+		for(int i = 0; i < 100; i++) {
+			csv.append("1006,Загрузка ").append(i).append(',').append(100 + i).append(".00\n");
+			expectedSum += 100 + i;
+		}
+		
+		CompletableFuture<BulkLoadResult> load = CompletableFuture.supplyAsync(
+				() -> bulkLoadService.loadCsv(stream(csv.toString()), false));
+		List<CompletableFuture<Void>> updates = new ArrayList<>();
+		for(int i = 0; i < 10; i++) {
+			updates.add(processingService.processPriceUpdates(List.of(new PriceUpdate(1006L, "Запись " + i, 1000.0))));
+			expectedSum += 1000;
+		}
+		load.join();
+		CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).join();
+		
+		// из таблицы, а не из кэша: проверяется, что пересборка и дельты записи сошлись в average_prices
+		AveragePrice stored = databaseService.getAllAveragePrices().stream()
+									  .filter(p -> p.getProductId().equals(1006L))
+									  .findFirst()
+									  .orElseThrow();
+		assertEquals(110, stored.getOfferCount());
+		assertEquals(expectedSum / 110, stored.getAveragePrice(), 0.01);
+	}
+	
+	private static InputStream stream(String data) {
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -1,6 +1,8 @@
 package com.example;
 
+import com.example.config.ApplicationConfig;
 import com.example.model.AveragePrice;
+import com.example.model.PriceHistory;
 import com.example.model.PriceUpdate;
 import com.example.service.DatabaseService;
 import com.example.service.PriceProcessingService;
@@ -8,8 +10,14 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -22,6 +30,7 @@ public class PriceServiceTest {
 	@BeforeEach
 	void setUp() {
 		databaseService = new DatabaseService();
+		databaseService.startBackgroundTasks();
 		processingService = new PriceProcessingService(databaseService);
 	}
 	
@@ -112,4 +121,174 @@ public class PriceServiceTest {
 		assertTrue(foundPrice5, "Average price for product 5 not found");
 		assertTrue(foundPrice6, "Average price for product 6 not found");
 	}
-} 
\ No newline at end of file
+	
+	@Test
+	void testBatchUpdateKeepsLastPricePerManufacturer() {
+		List<PriceUpdate> priceUpdates = new ArrayList<>();
+		for(int i = 0; i < 1200; i++) {
+			priceUpdates.add(new PriceUpdate(7L, "Производитель " + (i % 3), 100.0 + i));
+		}
+		
+		processingService.processPriceUpdates(priceUpdates).join();
+		
+		AveragePrice avgPrice7 = databaseService.getAveragePrice(7L);
+		
+		assertNotNull(avgPrice7);
+		assertEquals(3, avgPrice7.getOfferCount());
+		assertEquals((1297.0 + 1298.0 + 1299.0) / 3, avgPrice7.getAveragePrice(), 0.01);
+	}
+	
+	@Test
+	void testRepeatedUpdateAdjustsRunningAverage() {
+		processingService.processPriceUpdates(Arrays.asList(
+				new PriceUpdate(8L, "Производитель A", 100.0),
+				new PriceUpdate(8L, "Производитель B", 200.0)
+		)).join();
+		processingService.processPriceUpdates(List.of(new PriceUpdate(8L, "Производитель A", 300.0))).join();
+		
+		AveragePrice avgPrice8 = databaseService.getAveragePrice(8L);
+		
+		assertNotNull(avgPrice8);
+		assertEquals(250.0, avgPrice8.getAveragePrice(), 0.01);
+		assertEquals(2, avgPrice8.getOfferCount());
+	}
+	
+	@Test
+	void testStreamAveragePricesPagesByProductId() throws Exception {
+		processingService.processPriceUpdates(Arrays.asList(
+				new PriceUpdate(9L, "Производитель A", 100.0),
+				new PriceUpdate(10L, "Производитель A", 200.0),
+				new PriceUpdate(11L, "Производитель A", 300.0)
+		)).join();
+		
+		List<Long> page = new ArrayList<>();
+		int count = databaseService.streamAveragePrices(8L, 2,
+				(productId, averagePrice, offerCount, minPrice, maxPrice, medianPrice, p90Price) -> page.add(productId));
+		
+		assertEquals(2, count);
+		assertEquals(List.of(9L, 10L), page);
+	}
+	
+	@Test
+	void testGetAveragePricesResolvesCachedAndStoredProducts() {
+		processingService.processPriceUpdates(Arrays.asList(
+				new PriceUpdate(12L, "Производитель A", 100.0),
+				new PriceUpdate(13L, "Производитель A", 200.0),
+				new PriceUpdate(13L, "Производитель B", 400.0)
+		)).join();
+		
+		// 12 попадает в кэш, 13 читается из базы, -1 отсутствует
+		databaseService.getAveragePrice(12L);
+		Map<Long, AveragePrice> prices = databaseService.getAveragePrices(List.of(13L, 12L, -1L, 13L));
+		
+		assertEquals(List.of(13L, 12L), new ArrayList<>(prices.keySet()));
+		assertEquals(300.0, prices.get(13L).getAveragePrice(), 0.01);
+		assertEquals(2, prices.get(13L).getOfferCount());
+		assertEquals(100.0, prices.get(12L).getAveragePrice(), 0.01);
+	}
+	
+	@Test
+	void testPriceHistoryAggregatesWindow() throws Exception {
+		Instant from = Instant.now().minus(Duration.ofMinutes(1));
+		processingService.processPriceUpdates(List.of(new PriceUpdate(14L, "Производитель A", 100.0))).join();
+		processingService.processPriceUpdates(List.of(new PriceUpdate(14L, "Производитель A", 300.0))).join();
+		
+		// история пишется асинхронно
+		PriceHistory history = null;
+		for(int attempt = 0; attempt < 50; attempt++) {
+			history = databaseService.getPriceHistory(14L, from, Instant.now().plus(Duration.ofMinutes(1)));
+			if(history.getSamples() >= 2) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		
+		assertEquals(2, history.getSamples());
+		assertEquals(200.0, history.getAveragePrice(), 0.01);
+		assertEquals(100.0, history.getMinPrice(), 0.01);
+		assertEquals(300.0, history.getMaxPrice(), 0.01);
+		assertFalse(history.getPoints().isEmpty());
+	}
+	
+	@Test
+	void testStatisticsAreRefreshedAfterWrite() throws Exception {
+		processingService.processPriceUpdates(Arrays.asList(
+				new PriceUpdate(15L, "Производитель A", 100.0),
+				new PriceUpdate(15L, "Производитель B", 200.0),
+				new PriceUpdate(15L, "Производитель C", 300.0),
+				new PriceUpdate(15L, "Производитель D", 400.0)
+		)).join();
+		
+		// статистика пересчитывается асинхронно
+		AveragePrice averagePrice = null;
+		for(int attempt = 0; attempt < 50; attempt++) {
+			averagePrice = databaseService.getAveragePrice(15L);
+			if(averagePrice.getMinPrice() != null) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		
+		assertEquals(100.0, averagePrice.getMinPrice(), 0.01);
+		assertEquals(400.0, averagePrice.getMaxPrice(), 0.01);
+		assertEquals(250.0, averagePrice.getMedianPrice(), 0.01);
+		assertEquals(370.0, averagePrice.getP90Price(), 0.01);
+	}
+	
+	@Test
+	void testAsyncAverageModeConvergesAfterRefresh() throws Exception {
+		Properties props = new Properties();
+		try(InputStream is = getClass().getClassLoader().getResourceAsStream("application.properties")) {
+			props.load(is);
+		}
+		props.setProperty("db.average.mode", "async");
+		props.setProperty("db.average.max-staleness-ms", "200");
+		
+		DatabaseService asyncDatabaseService = new DatabaseService(new ApplicationConfig(props));
+		asyncDatabaseService.startBackgroundTasks();
+		try {
+			asyncDatabaseService.updatePrices(Arrays.asList(
+					new PriceUpdate(16L, "Производитель A", 100.0),
+					new PriceUpdate(16L, "Производитель B", 300.0)
+			));
+			asyncDatabaseService.updatePrice(new PriceUpdate(16L, "Производитель B", 500.0));
+			
+			// запись не трогает average_prices, средняя появляется после прохода пересчета
+			AveragePrice averagePrice = null;
+			for(int attempt = 0; attempt < 50; attempt++) {
+				averagePrice = asyncDatabaseService.getAveragePrices(List.of(16L)).get(16L);
+				if(averagePrice != null && averagePrice.getAveragePrice() == 300.0) {
+					break;
+				}
+				asyncDatabaseService.getAveragePriceCache().invalidate(16L);
+				Thread.sleep(100);
+			}
+			
+			assertNotNull(averagePrice);
+			assertEquals(300.0, averagePrice.getAveragePrice(), 0.01);
+			assertEquals(2, averagePrice.getOfferCount());
+			assertEquals(500.0, averagePrice.getMaxPrice(), 0.01);
+		} finally {
+			asyncDatabaseService.close();
+		}
+	}
+	
+	@Test
+	void testUnchangedPriceIsSkipped() {
+		databaseService.updatePrices(Arrays.asList(
+				new PriceUpdate(17L, "Производитель A", 100.0),
+				new PriceUpdate(17L, "Производитель B", 200.0)
+		));
+		double unchangedBefore = databaseService.getUnchangedCount();
+		
+		databaseService.updatePrices(Arrays.asList(
+				new PriceUpdate(17L, "Производитель A", 100.0),
+				new PriceUpdate(17L, "Производитель B", 400.0)
+		));
+		
+		assertEquals(1, databaseService.getUnchangedCount() - unchangedBefore, 0.001);
+		AveragePrice averagePrice = databaseService.getAveragePrice(17L);
+		assertEquals(250.0, averagePrice.getAveragePrice(), 0.01);
+		assertEquals(2, averagePrice.getOfferCount());
+	}
+}
@@ -0,0 +1,133 @@
+package com.example;
+
+import com.example.model.AveragePrice;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.SendHandler;
+import jakarta.websocket.SendResult;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PriceSubscriptionHubTest {
+	
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final PriceSubscriptionHub hub = new PriceSubscriptionHub(objectMapper);
+	
+	@Test
+	void testUpdatesDuringSendAreConflatedToLatestValue() throws Exception {
+		FakeSession session = new FakeSession();
+		hub.register(session.proxy);
+		hub.subscribe(session.proxy, List.of(1L));
+		
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 100.0, 1)));
+		assertEquals(1, session.sent.size());
+		
+		// первая отправка еще не завершена: следующие значения копятся
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 110.0, 2)));
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 120.0, 3)));
+		assertEquals(1, session.sent.size());
+		
+		session.completeSend();
+		
+		assertEquals(2, session.sent.size());
+		JsonNode data = objectMapper.readTree(session.sent.get(1)).path("data");
+		assertEquals(1, data.size());
+		assertEquals(120.0, data.get(0).path("averagePrice").asDouble(), 0.001);
+		assertEquals(3, data.get(0).path("offerCount").asInt());
+		
+		session.completeSend();
+		assertEquals(2, session.sent.size());
+	}
+	
+	@Test
+	void testUnsubscribeStopsDelivery() throws Exception {
+		FakeSession session = new FakeSession();
+		hub.register(session.proxy);
+		hub.subscribe(session.proxy, List.of(1L, 2L));
+		hub.unsubscribe(session.proxy, List.of(1L));
+		
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 100.0, 1)));
+		assertTrue(session.sent.isEmpty());
+		
+		hub.onAveragePricesChanged(List.of(new AveragePrice(2L, 200.0, 1)));
+		assertEquals(1, session.sent.size());
+		assertEquals(2L, objectMapper.readTree(session.sent.get(0)).path("data").get(0).path("productId").asLong());
+	}
+	
+	@Test
+	void testClosedSessionIsRemoved() {
+		FakeSession session = new FakeSession();
+		hub.register(session.proxy);
+		hub.subscribe(session.proxy, List.of(1L));
+		
+		session.open = false;
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 100.0, 1)));
+		assertTrue(session.sent.isEmpty());
+		
+		// сессия снята с подписок: даже открытая снова, она больше ничего не получает
+		session.open = true;
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 110.0, 1)));
+		assertTrue(session.sent.isEmpty());
+	}
+	
+	@Test
+	void testFailedSendRemovesSession() {
+		FakeSession session = new FakeSession();
+		hub.register(session.proxy);
+		hub.subscribe(session.proxy, List.of(1L));
+		
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 100.0, 1)));
+		session.failSend(new IOException("Broken pipe"));
+		
+		hub.onAveragePricesChanged(List.of(new AveragePrice(1L, 110.0, 1)));
+		assertEquals(1, session.sent.size());
+	}
+	
+	/**
+	 * Сессия, которая запоминает отправленные сообщения и завершает отправку по команде теста.
+	 */
+	private static final class FakeSession {
+		final List<String> sent = new ArrayList<>();
+		final List<SendHandler> handlers = new ArrayList<>();
+		volatile boolean open = true;
+		final Session proxy;
+		
+		FakeSession() {
+			RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[]{RemoteEndpoint.Async.class}, (target, method, args) -> {
+						if(method.getName().equals("sendText") && args.length == 2 && args[1] instanceof SendHandler handler) {
+							sent.add((String) args[0]);
+							handlers.add(handler);
+							return null;
+						}
+						throw new UnsupportedOperationException(method.getName());
+					});
+			this.proxy = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[]{Session.class}, (target, method, args) -> switch(method.getName()) {
+						case "getAsyncRemote" -> remote;
+						case "isOpen" -> open;
+						case "getId" -> "test";
+						case "hashCode" -> System.identityHashCode(target);
+						case "equals" -> target == args[0];
+						case "toString" -> "FakeSession";
+						default -> throw new UnsupportedOperationException(method.getName());
+					});
+		}
+		
+		void completeSend() {
+			handlers.remove(0).onResult(new SendResult());
+		}
+		
+		void failSend(Throwable cause) {
+			handlers.remove(0).onResult(new SendResult(cause));
+		}
+	}
+}
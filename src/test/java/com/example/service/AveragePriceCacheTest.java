@@ -0,0 +1,73 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AveragePriceCacheTest {
+	
+	@Test
+	void testHitAndMissCounters() {
+		AveragePriceCache cache = new AveragePriceCache(100, 60_000);
+		
+		assertNull(cache.get(1L));
+		cache.put(1L, 150.0, 2);
+		AveragePrice cached = cache.get(1L);
+		
+		assertNotNull(cached);
+		assertEquals(150.0, cached.getAveragePrice(), 0.001);
+		assertEquals(2, cached.getOfferCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+	
+	@Test
+	void testSizeBoundEvictsLeastRecentlyUsed() {
+		AveragePriceCache cache = new AveragePriceCache(16, 60_000);
+		
+		for(long productId = 0; productId < 1000; productId++) {
+			cache.put(productId, productId, 1);
+		}
+		
+		assertTrue(cache.size() <= 16);
+		assertEquals(1000 - cache.size(), cache.getEvictionCount());
+	}
+	
+	@Test
+	void testExpiredEntryIsMiss() throws InterruptedException {
+		AveragePriceCache cache = new AveragePriceCache(100, 1);
+		
+		cache.put(1L, 100.0, 1);
+		Thread.sleep(5);
+		
+		assertNull(cache.get(1L));
+	}
+	
+	@Test
+	void testPutIfAbsentKeepsWrittenValue() {
+		AveragePriceCache cache = new AveragePriceCache(100, 60_000);
+		
+		cache.put(1L, 200.0, 2);
+		cache.putIfAbsent(1L, 100.0, 1);
+		
+		assertEquals(200.0, cache.get(1L).getAveragePrice(), 0.001);
+	}
+	
+	@Test
+	void testNewAverageKeepsRefreshedStatistics() {
+		AveragePriceCache cache = new AveragePriceCache(100, 60_000);
+		
+		cache.putStatistics(1L, 100.0, 200.0, 150.0, 190.0);
+		assertNull(cache.get(1L));
+		
+		cache.put(1L, 150.0, 2);
+		cache.putStatistics(1L, 100.0, 200.0, 150.0, 190.0);
+		cache.put(1L, 160.0, 3);
+		AveragePrice cached = cache.get(1L);
+		
+		assertEquals(160.0, cached.getAveragePrice(), 0.001);
+		assertEquals(100.0, cached.getMinPrice(), 0.001);
+		assertEquals(190.0, cached.getP90Price(), 0.001);
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyRegistryTest {
+	
+	@Test
+	void testDuplicateGetsOriginalResponse() {
+		IdempotencyRegistry registry = new IdempotencyRegistry(100, 60_000);
+		
+		assertNull(registry.reserve("batch-1"));
+		assertSame(IdempotencyRegistry.IN_PROGRESS, registry.reserve("batch-1"));
+		
+		byte[] body = "{\"status\":\"success\"}".getBytes(StandardCharsets.UTF_8);
+		registry.complete("batch-1", 202, "application/json", body);
+		IdempotencyRegistry.StoredResponse stored = registry.reserve("batch-1");
+		
+		assertEquals(202, stored.status());
+		assertEquals("application/json", stored.contentType());
+		assertArrayEquals(body, stored.body());
+	}
+	
+	@Test
+	void testReleasedKeyCanBeRetried() {
+		IdempotencyRegistry registry = new IdempotencyRegistry(100, 60_000);
+		
+		assertNull(registry.reserve("batch-1"));
+		registry.release("batch-1");
+		
+		assertNull(registry.reserve("batch-1"));
+	}
+	
+	@Test
+	void testReleaseKeepsCompletedResponse() {
+		IdempotencyRegistry registry = new IdempotencyRegistry(100, 60_000);
+		
+		assertNull(registry.reserve("batch-1"));
+		registry.complete("batch-1", 202, "application/json", new byte[]{'{', '}'});
+		registry.release("batch-1");
+		
+		assertEquals(202, registry.reserve("batch-1").status());
+	}
+	
+	@Test
+	void testKeysAreBoundedAndExpire() throws InterruptedException {
+		IdempotencyRegistry bounded = new IdempotencyRegistry(10, 60_000);
+		for(int i = 0; i < 100; i++) {
+			bounded.reserve("batch-" + i);
+		}
+		assertEquals(10, bounded.size());
+		
+		IdempotencyRegistry expiring = new IdempotencyRegistry(100, 1);
+		expiring.reserve("batch-1");
+		expiring.complete("batch-1", 202, "application/json", new byte[]{'{', '}'});
+		Thread.sleep(5);
+		
+		assertNull(expiring.reserve("batch-1"));
+	}
+}
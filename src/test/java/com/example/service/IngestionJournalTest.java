@@ -0,0 +1,253 @@
+package com.example.service;
+
+import com.example.model.PriceUpdate;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestionJournalTest {
+	
+	@TempDir
+	Path directory;
+	
+	@Test
+	void testUnappliedRecordsAreReplayedAfterRestart() {
+		IngestionJournal journal = new IngestionJournal(directory, 1024 * 1024);
+		journal.append(List.of(new PriceUpdate(1L, "Производитель A", 100.0)));
+		journal.append(List.of(
+				new PriceUpdate(2L, "Производитель B", 150.5),
+				new PriceUpdate(1L, "Производитель C", 200.0)
+		));
+		journal.close();
+		
+		List<PriceUpdate> replayed = new ArrayList<>();
+		IngestionJournal reopened = new IngestionJournal(directory, 1024 * 1024);
+		int records = reopened.recover(updates -> {
+			replayed.addAll(updates);
+			return CompletableFuture.completedFuture(null);
+		});
+		reopened.close();
+		
+		assertEquals(2, records);
+		assertEquals(3, replayed.size());
+		assertEquals(2L, replayed.get(1).getProductId());
+		assertEquals("Производитель B", replayed.get(1).getManufacturerName());
+		assertEquals(150.5, replayed.get(1).getPrice(), 0.001);
+	}
+	
+	@Test
+	void testAppliedSegmentsAreDeleted() throws Exception {
+		IngestionJournal journal = new IngestionJournal(directory, 1);
+		IngestionJournal.Entry first = journal.append(List.of(new PriceUpdate(1L, "Производитель A", 100.0)));
+		IngestionJournal.Entry second = journal.append(List.of(new PriceUpdate(2L, "Производитель B", 200.0)));
+		journal.markApplied(first);
+		journal.markApplied(second);
+		journal.close();
+		
+		try(var files = Files.list(directory)) {
+			assertEquals(0, files.count());
+		}
+	}
+	
+	@Test
+	void testFailedLiveRecordIsQuarantined() throws Exception {
+		IngestionJournal journal = new IngestionJournal(directory, 1);
+		List<PriceUpdate> updates = List.of(new PriceUpdate(1L, "Производитель A", 100.0));
+		IngestionJournal.Entry entry = journal.append(updates);
+		journal.markFailed(entry, updates, new IllegalStateException("connection reset"));
+		journal.close();
+		
+		// сегмент освобожден, пакет остался только в карантине
+		Path quarantine = directory.resolve("quarantine.log");
+		try(var files = Files.list(directory)) {
+			assertEquals(List.of(quarantine), files.toList());
+		}
+		
+		// карантин в формате сегмента: его можно проиграть, подложив как сегмент журнала
+		Path replayDirectory = Files.createDirectory(directory.resolve("replay"));
+		Files.copy(quarantine, replayDirectory.resolve("journal-1.log"));
+		List<PriceUpdate> replayed = new ArrayList<>();
+		IngestionJournal reopened = new IngestionJournal(replayDirectory, 1024 * 1024);
+		reopened.recover(batch -> {
+			replayed.addAll(batch);
+			return CompletableFuture.completedFuture(null);
+		});
+		reopened.close();
+		
+		assertEquals(1, replayed.size());
+		assertEquals("Производитель A", replayed.get(0).getManufacturerName());
+		assertEquals(100.0, replayed.get(0).getPrice(), 0.001);
+	}
+	
+	@Test
+	void testFailedReplayIsQuarantinedAndDoesNotBlockRecovery() throws Exception {
+		IngestionJournal journal = new IngestionJournal(directory, 1024 * 1024);
+		journal.append(List.of(new PriceUpdate(1L, "Производитель A", 100.0)));
+		journal.append(List.of(new PriceUpdate(2L, "Производитель B", 200.0)));
+		journal.close();
+		
+		List<PriceUpdate> replayed = new ArrayList<>();
+		IngestionJournal reopened = new IngestionJournal(directory, 1024 * 1024);
+		int records = reopened.recover(updates -> {
+			if(updates.get(0).getProductId() == 1L) {
+				return CompletableFuture.failedFuture(new IllegalStateException("value out of range"));
+			}
+			replayed.addAll(updates);
+			return CompletableFuture.completedFuture(null);
+		});
+		reopened.close();
+		
+		assertEquals(2, records);
+		assertEquals(1, replayed.size());
+		assertEquals(2L, replayed.get(0).getProductId());
+		assertTrue(Files.size(directory.resolve("quarantine.log")) > 0);
+		
+		// следующий старт не проигрывает ни примененную, ни отложенную в карантин запись
+		IngestionJournal restarted = new IngestionJournal(directory, 1024 * 1024);
+		assertFalse(restarted.hasRecoveredSegments());
+		restarted.close();
+	}
+	
+	@Test
+	void testTornWriteDoesNotHideLaterRecords() {
+		IngestionJournal journal = new IngestionJournal(directory, 1024 * 1024, path -> new TearingChannel(
+				FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+		assertThrows(UncheckedIOException.class,
+				() -> journal.append(List.of(new PriceUpdate(1L, "Производитель A", 100.0))));
+		journal.append(List.of(new PriceUpdate(2L, "Производитель B", 200.0)));
+		journal.close();
+		
+		List<PriceUpdate> replayed = new ArrayList<>();
+		IngestionJournal reopened = new IngestionJournal(directory, 1024 * 1024);
+		int records = reopened.recover(updates -> {
+			replayed.addAll(updates);
+			return CompletableFuture.completedFuture(null);
+		});
+		reopened.close();
+		
+		assertEquals(1, records);
+		assertEquals(2L, replayed.get(0).getProductId());
+	}
+	
+	/**
+	 * Первая запись обрывается на половине первого буфера и падает, как при ENOSPC или ошибке диска.
+	 */
+	private static final class TearingChannel extends FileChannel {
+		private final FileChannel delegate;
+		private boolean torn;
+		
+		TearingChannel(FileChannel delegate) {
+			this.delegate = delegate;
+		}
+		
+		@Override
+		public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+			if(!torn) {
+				torn = true;
+				ByteBuffer half = srcs[offset].duplicate();
+				half.limit(half.position() + half.remaining() / 2);
+				delegate.write(half);
+				throw new IOException("No space left on device");
+			}
+			return delegate.write(srcs, offset, length);
+		}
+		
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			return delegate.write(src);
+		}
+		
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			return delegate.read(dst);
+		}
+		
+		@Override
+		public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+			return delegate.read(dsts, offset, length);
+		}
+		
+		@Override
+		public long position() throws IOException {
+			return delegate.position();
+		}
+		
+		@Override
+		public FileChannel position(long newPosition) throws IOException {
+			delegate.position(newPosition);
+			return this;
+		}
+		
+		@Override
+		public long size() throws IOException {
+			return delegate.size();
+		}
+		
+		@Override
+		public FileChannel truncate(long size) throws IOException {
+			delegate.truncate(size);
+			return this;
+		}
+		
+		@Override
+		public void force(boolean metaData) throws IOException {
+			delegate.force(metaData);
+		}
+		
+		@Override
+		public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+			return delegate.transferTo(position, count, target);
+		}
+		
+		@Override
+		public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+			return delegate.transferFrom(src, position, count);
+		}
+		
+		@Override
+		public int read(ByteBuffer dst, long position) throws IOException {
+			return delegate.read(dst, position);
+		}
+		
+		@Override
+		public int write(ByteBuffer src, long position) throws IOException {
+			return delegate.write(src, position);
+		}
+		
+		@Override
+		public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+			return delegate.map(mode, position, size);
+		}
+		
+		@Override
+		public FileLock lock(long position, long size, boolean shared) throws IOException {
+			return delegate.lock(position, size, shared);
+		}
+		
+		@Override
+		public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+			return delegate.tryLock(position, size, shared);
+		}
+		
+		@Override
+		protected void implCloseChannel() throws IOException {
+			delegate.close();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.example.service;
+
+import com.example.model.AveragePrice;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PriceIndexTest {
+	
+	@Test
+	void testGrowsBeyondExpectedSize() {
+		PriceIndex index = new PriceIndex(16);
+		
+		List<AveragePrice> averagePrices = new ArrayList<>();
+		for(long productId = -5000; productId < 5000; productId++) {
+			averagePrices.add(new AveragePrice(productId, productId * 2.0, 3));
+		}
+		index.putAll(averagePrices);
+		
+		assertEquals(10_000, index.size());
+		for(long productId = -5000; productId < 5000; productId++) {
+			AveragePrice averagePrice = index.get(productId);
+			assertEquals(productId * 2.0, averagePrice.getAveragePrice(), 0.001);
+			assertEquals(3, averagePrice.getOfferCount());
+		}
+		assertNull(index.get(5000L));
+	}
+	
+	@Test
+	void testNewAverageKeepsStatisticsAndWarmUpDoesNotOverwrite() {
+		PriceIndex index = new PriceIndex(16);
+		
+		index.putIfAbsent(1L, 100.0, 2, 50.0, 150.0, 90.0, 140.0);
+		index.putAll(List.of(new AveragePrice(1L, 120.0, 3)));
+		index.putIfAbsent(1L, 100.0, 2, 50.0, 150.0, 90.0, 140.0);
+		
+		AveragePrice averagePrice = index.get(1L);
+		assertEquals(120.0, averagePrice.getAveragePrice(), 0.001);
+		assertEquals(3, averagePrice.getOfferCount());
+		assertEquals(50.0, averagePrice.getMinPrice(), 0.001);
+		assertEquals(150.0, averagePrice.getMaxPrice(), 0.001);
+		assertEquals(90.0, averagePrice.getMedianPrice(), 0.001);
+		assertEquals(140.0, averagePrice.getP90Price(), 0.001);
+		
+		index.putAll(List.of(new AveragePrice(2L, 10.0, 1)));
+		assertNull(index.get(2L).getMinPrice());
+		assertNull(index.get(2L).getMedianPrice());
+		
+		AveragePrice refreshed = new AveragePrice(2L, 10.0, 1);
+		refreshed.setMinPrice(10.0);
+		refreshed.setMaxPrice(10.0);
+		refreshed.setMedianPrice(10.0);
+		refreshed.setP90Price(10.0);
+		index.putStatistics(List.of(refreshed));
+		assertEquals(10.0, index.get(2L).getP90Price(), 0.001);
+		
+		Map<Long, AveragePrice> found = index.getAll(List.of(2L, 3L, 1L));
+		assertEquals(List.of(2L, 1L), new ArrayList<>(found.keySet()));
+	}
+}
@@ -0,0 +1,38 @@
+package com.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadinessTest {
+	
+	@Test
+	void testReadyOnlyWhenAllStepsComplete() {
+		Readiness readiness = new Readiness(System.currentTimeMillis());
+		readiness.register("migrations");
+		readiness.register("connection-pools");
+		
+		readiness.complete("connection-pools");
+		assertFalse(readiness.isReady());
+		assertEquals(-1, readiness.getStartupMillis());
+		assertEquals(Readiness.State.PENDING, readiness.getSteps().get("migrations"));
+		
+		readiness.complete("migrations");
+		assertTrue(readiness.isReady());
+		assertTrue(readiness.getStartupMillis() >= 0);
+	}
+	
+	@Test
+	void testFailedStepKeepsServiceNotReady() {
+		Readiness readiness = new Readiness(System.currentTimeMillis());
+		readiness.register("migrations");
+		readiness.register("connection-pools");
+		
+		readiness.fail("migrations", new IllegalStateException("changeset failed"));
+		readiness.complete("connection-pools");
+		
+		assertFalse(readiness.isReady());
+		assertTrue(readiness.isFailed());
+		assertEquals(Readiness.State.FAILED, readiness.getSteps().get("migrations"));
+	}
+}
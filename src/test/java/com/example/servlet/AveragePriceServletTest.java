@@ -0,0 +1,145 @@
+package com.example.servlet;
+
+import com.example.config.ApplicationConfig;
+import com.example.service.DatabaseService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Потоковая выдача списка средних цен на встроенном Jetty; курсор подменен генератором строк, база не нужна.
+ */
+public class AveragePriceServletTest {
+	
+	private final HttpClient client = HttpClient.newHttpClient();
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	
+	private StreamingDatabaseService databaseService;
+	private ExecutorService executor;
+	private Server server;
+	private URI endpoint;
+	
+	@BeforeEach
+	void setUp() throws Exception {
+		Properties props = new Properties();
+		try(InputStream is = getClass().getClassLoader().getResourceAsStream("application.properties")) {
+			props.load(is);
+		}
+		props.setProperty("history.enabled", "false");
+		props.setProperty("statistics.enabled", "false");
+		props.setProperty("ingest.journal.enabled", "false");
+		ApplicationConfig config = new ApplicationConfig(props);
+		
+		databaseService = new StreamingDatabaseService(config);
+		executor = Executors.newFixedThreadPool(2);
+		
+		server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(new AveragePriceServlet(databaseService, executor, config)), "/api/prices/average/*");
+		server.setHandler(context);
+		server.start();
+		endpoint = URI.create("http://localhost:" + connector.getLocalPort() + "/api/prices/average");
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		server.stop();
+		executor.shutdownNow();
+		databaseService.close();
+	}
+	
+	@Test
+	void testStreamedListIsComplete() throws Exception {
+		databaseService.rows = 5_000;
+		
+		HttpResponse<String> response = get("");
+		
+		assertEquals(200, response.statusCode());
+		JsonNode body = objectMapper.readTree(response.body());
+		assertEquals(5_000, body.path("data").size());
+		assertTrue(body.path("nextAfter").isMissingNode());
+	}
+	
+	@Test
+	void testPageHasNextAfter() throws Exception {
+		databaseService.rows = 10;
+		
+		JsonNode body = objectMapper.readTree(get("?limit=10").body());
+		
+		assertEquals(10, body.path("data").size());
+		assertEquals(10L, body.path("nextAfter").asLong());
+	}
+	
+	@Test
+	void testCursorFailureAbortsResponse() {
+		// строк больше буфера ответа: статус и часть тела уходят клиенту до ошибки
+		databaseService.rows = 5_000;
+		databaseService.failAfter = 4_000;
+		
+		assertThrows(IOException.class, () -> get(""));
+	}
+	
+	@Test
+	void testCursorFailureBeforeFirstRowAbortsResponse() {
+		databaseService.rows = 10;
+		databaseService.failAfter = 0;
+		
+		assertThrows(IOException.class, () -> get(""));
+	}
+	
+	private HttpResponse<String> get(String query) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(endpoint + query)).GET().build(),
+				HttpResponse.BodyHandlers.ofString());
+	}
+	
+	/**
+	 * Выдает {@code rows} строк с ID от 1; если задан {@code failAfter}, после стольких строк курсор падает,
+	 * как при обрыве соединения с базой.
+	 */
+	static final class StreamingDatabaseService extends DatabaseService {
+		volatile int rows;
+		volatile int failAfter = -1;
+		
+		StreamingDatabaseService(ApplicationConfig config) {
+			super(config);
+		}
+		
+		@Override
+		public int streamAveragePrices(Long afterProductId, Integer limit, AveragePriceHandler handler) throws IOException {
+			long start = afterProductId != null ? afterProductId + 1 : 1;
+			int count = 0;
+			for(long productId = start; productId < start + rows; productId++) {
+				if(limit != null && count == limit) {
+					break;
+				}
+				if(count == failAfter) {
+					throw new IllegalStateException("Соединение с базой потеряно");
+				}
+				handler.accept(productId, 100.0, 1, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+				count++;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.example.servlet;
+
+import com.example.config.ApplicationConfig;
+import com.example.model.PriceUpdate;
+import com.example.service.DatabaseService;
+import com.example.service.IngestionRejectedException;
+import com.example.service.PriceProcessingService;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сервлет на встроенном Jetty; обработка подменена записью принятых пакетов, база не нужна:
+ * пулы соединений открываются лениво.
+ */
+public class PriceUpdateServletTest {
+	
+	private final HttpClient client = HttpClient.newHttpClient();
+	
+	private DatabaseService databaseService;
+	private RecordingProcessingService processingService;
+	private Server server;
+	private URI endpoint;
+	
+	@BeforeEach
+	void setUp() throws Exception {
+		Properties props = new Properties();
+		try(InputStream is = getClass().getClassLoader().getResourceAsStream("application.properties")) {
+			props.load(is);
+		}
+		props.setProperty("history.enabled", "false");
+		props.setProperty("statistics.enabled", "false");
+		props.setProperty("ingest.journal.enabled", "false");
+		props.setProperty("server.async-timeout-ms", "1000");
+		props.setProperty("ingest.stream.chunk-size", "3");
+		ApplicationConfig config = new ApplicationConfig(props);
+		
+		databaseService = new DatabaseService(config);
+		processingService = new RecordingProcessingService(databaseService, config);
+		
+		server = new Server();
+		ServerConnector connector = new ServerConnector(server);
+		connector.setPort(0);
+		server.addConnector(connector);
+		ServletContextHandler context = new ServletContextHandler();
+		context.addServlet(new ServletHolder(new PriceUpdateServlet(processingService, config)), "/api/prices/update");
+		server.setHandler(context);
+		server.start();
+		endpoint = URI.create("http://localhost:" + connector.getLocalPort() + "/api/prices/update");
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		server.stop();
+		processingService.shutdown();
+		databaseService.close();
+	}
+	
+	@Test
+	void testValidBatchIsAccepted() throws Exception {
+		HttpResponse<String> response = post("", """
+				[{"product_id": 1, "manufacturer_name": "Производитель A", "price": 99999999.99}]
+				""");
+		
+		assertEquals(202, response.statusCode());
+		assertEquals(1, processingService.submitted.size());
+	}
+	
+	@Test
+	void testTooLongManufacturerNameIsRejected() throws Exception {
+		HttpResponse<String> response = post("", """
+				[{"product_id": 1, "manufacturer_name": "Производитель A", "price": 100.0},
+				 {"product_id": 2, "manufacturer_name": "%s", "price": 100.0}]
+				""".formatted("M".repeat(256)));
+		
+		assertEquals(400, response.statusCode());
+		assertTrue(processingService.submitted.isEmpty());
+	}
+	
+	@Test
+	void testPriceOutOfColumnRangeIsRejected() throws Exception {
+		HttpResponse<String> response = post("", """
+				[{"product_id": 1, "manufacturer_name": "Производитель A", "price": 100000000.0}]
+				""");
+		
+		assertEquals(400, response.statusCode());
+		assertTrue(processingService.submitted.isEmpty());
+	}
+	
+	@Test
+	void testStreamSubmitsChunks() throws Exception {
+		HttpResponse<String> response = post("?mode=stream", PriceUpdateStreamParserTest.updates(7, -1));
+		
+		assertEquals(202, response.statusCode());
+		assertEquals(List.of(3, 3, 1), processingService.submitted.stream().map(List::size).toList());
+	}
+	
+	@Test
+	void testStreamStopsAtInvalidElement() throws Exception {
+		HttpResponse<String> response = post("?mode=stream", PriceUpdateStreamParserTest.updates(7, 4));
+		
+		assertEquals(400, response.statusCode());
+		assertTrue(response.body().contains("Элемент #4"), response.body());
+		assertEquals(List.of(3), processingService.submitted.stream().map(List::size).toList());
+	}
+	
+	@Test
+	void testRejectedRequestCanBeRetriedWithSameKey() throws Exception {
+		String body = """
+				[{"product_id": 1, "manufacturer_name": "Производитель A", "price": 100.0}]
+				""";
+		processingService.failure = new IngestionRejectedException("Очередь заполнена", 1);
+		assertEquals(503, post("", body, "batch-1").statusCode());
+		
+		processingService.failure = null;
+		HttpResponse<String> retried = post("", body, "batch-1");
+		
+		assertEquals(202, retried.statusCode());
+		assertEquals(1, processingService.submitted.size());
+	}
+	
+	@Test
+	void testTimedOutRequestCanBeRetriedWithSameKey() throws Exception {
+		String body = """
+				[{"product_id": 1, "manufacturer_name": "Производитель A", "price": 100.0}]
+				""";
+		processingService.stalled = true;
+		assertEquals(503, post("", body, "batch-1").statusCode());
+		
+		processingService.stalled = false;
+		HttpResponse<String> retried = post("", body, "batch-1");
+		
+		assertEquals(202, retried.statusCode());
+		assertNull(retried.headers().firstValue("Idempotent-Replayed").orElse(null));
+	}
+	
+	private HttpResponse<String> post(String query, String body) throws Exception {
+		return post(query, body, null);
+	}
+	
+	private HttpResponse<String> post(String query, String body, String idempotencyKey) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(endpoint + query))
+											  .header("Content-Type", "application/json")
+											  .POST(HttpRequest.BodyPublishers.ofString(body));
+		if(idempotencyKey != null) {
+			request.header("Idempotency-Key", idempotencyKey);
+		}
+		return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+	
+	/**
+	 * Записывает принятые пакеты вместо постановки в очередь полос. {@code failure} — отказ приема,
+	 * {@code stalled} — прием, который не завершается.
+	 */
+	static final class RecordingProcessingService extends PriceProcessingService {
+		final List<List<PriceUpdate>> submitted = new CopyOnWriteArrayList<>();
+		volatile RuntimeException failure;
+		volatile boolean stalled;
+		
+		RecordingProcessingService(DatabaseService databaseService, ApplicationConfig config) {
+			super(databaseService, config);
+		}
+		
+		@Override
+		public Submission submit(List<PriceUpdate> priceUpdates, boolean waitForCapacity) {
+			if(failure != null) {
+				throw failure;
+			}
+			if(stalled) {
+				return new Submission(new CompletableFuture<>(), new CompletableFuture<>());
+			}
+			submitted.add(List.copyOf(priceUpdates));
+			return new Submission(CompletableFuture.completedFuture(null), CompletableFuture.completedFuture(null));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.example.servlet;
+
+import com.example.model.PriceUpdate;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PriceUpdateStreamParserTest {
+	
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final List<List<PriceUpdate>> chunks = new ArrayList<>();
+	
+	@Test
+	void testInputSplitAtEveryByte() throws Exception {
+		PriceUpdateStreamParser parser = new PriceUpdateStreamParser(mapper, 2, chunks::add);
+		byte[] body = updates(3, -1).getBytes(StandardCharsets.UTF_8);
+		
+		for(int i = 0; i < body.length; i++) {
+			parser.feed(body, i, 1);
+		}
+		parser.end();
+		
+		assertEquals(3, parser.getAccepted());
+		assertEquals(List.of(2, 1), chunks.stream().map(List::size).toList());
+		assertEquals("Производитель 2", chunks.get(1).get(0).getManufacturerName());
+		assertEquals(102.0, chunks.get(1).get(0).getPrice(), 0.001);
+	}
+	
+	@Test
+	void testBodyLongerThanOneChunk() throws Exception {
+		PriceUpdateStreamParser parser = new PriceUpdateStreamParser(mapper, 3, chunks::add);
+		byte[] body = updates(7, -1).getBytes(StandardCharsets.UTF_8);
+		
+		// части не совпадают с границами элементов
+		for(int offset = 0; offset < body.length; offset += 10) {
+			parser.feed(body, offset, Math.min(10, body.length - offset));
+		}
+		parser.end();
+		
+		assertEquals(7, parser.getAccepted());
+		assertEquals(List.of(3, 3, 1), chunks.stream().map(List::size).toList());
+		assertEquals(6L, chunks.get(2).get(0).getProductId());
+	}
+	
+	@Test
+	void testInvalidElementStopsParsingAfterSubmittedChunks() throws Exception {
+		PriceUpdateStreamParser parser = new PriceUpdateStreamParser(mapper, 2, chunks::add);
+		byte[] body = updates(6, 3).getBytes(StandardCharsets.UTF_8);
+		
+		IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+				() -> parser.feed(body, 0, body.length));
+		
+		assertTrue(e.getMessage().startsWith("Элемент #3"), e.getMessage());
+		assertEquals(2, parser.getAccepted());
+		assertEquals(1, chunks.size());
+	}
+	
+	@Test
+	void testRejectedChunkIsNotCounted() throws Exception {
+		PriceUpdateStreamParser parser = new PriceUpdateStreamParser(mapper, 2, chunk -> {
+			throw new IllegalStateException("Очередь заполнена");
+		});
+		byte[] body = updates(3, -1).getBytes(StandardCharsets.UTF_8);
+		
+		assertThrows(IllegalStateException.class, () -> parser.feed(body, 0, body.length));
+		assertEquals(0, parser.getAccepted());
+	}
+	
+	@Test
+	void testRejectsMalformedBodies() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> parse("{\"product_id\": 1}"));
+		assertThrows(IllegalArgumentException.class, () -> parse("[]"));
+		assertThrows(IllegalArgumentException.class, () -> parse("[1, 2]"));
+		// незакрытый массив — ошибка синтаксиса, а не содержимого
+		assertThrows(JsonProcessingException.class,
+				() -> parse("[{\"product_id\": 1, \"manufacturer_name\": \"A\", \"price\": 1.0}"));
+	}
+	
+	private void parse(String body) throws Exception {
+		PriceUpdateStreamParser parser = new PriceUpdateStreamParser(mapper, 2, chunks::add);
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		parser.feed(bytes, 0, bytes.length);
+		parser.end();
+	}
+	
+	/**
+	 * JSON-массив из {@code count} обновлений; элемент {@code invalidAt} — с отрицательной ценой.
+	 */
+	static String updates(int count, int invalidAt) {
+		StringBuilder json = new StringBuilder("[");
+		for(int i = 0; i < count; i++) {
+			if(i > 0) {
+				json.append(", ");
+			}
+			json.append("{\"product_id\": ").append(i)
+					.append(", \"manufacturer_name\": \"Производитель ").append(i)
+					.append("\", \"price\": ").append(i == invalidAt ? -1.0 : 100.0 + i).append('}');
+		}
+		return json.append(']').toString();
+	}
+}